@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fr.coppernic.framework.art;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import fr.coppernic.framework.art.Fixtures.Listener;
+import fr.coppernic.framework.art.Fixtures.NoopTask;
+import fr.coppernic.framework.art.Fixtures.PendingTask;
+
+/**
+ * Latency between dispose() of a running suite and
+ * {@link AsyncExecutorListener#onCancelled()}, with queuedCount tasks still queued.
+ * <p>
+ * A suite can be cancelled once : each iteration prepares a batch of {@link #SUITES} running
+ * suites, leasing the thread of a shared pool, and cancels them one after the other. The score
+ * is the time of a whole batch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(batchSize = CancelLatencyBenchmark.SUITES)
+@Measurement(batchSize = CancelLatencyBenchmark.SUITES)
+public class CancelLatencyBenchmark {
+
+	static final int SUITES = 20;
+
+	@Param({"10", "1000", "100000", "1000000"})
+	public int queuedCount;
+
+	private DispatcherPool pool;
+	/* Shared by all suites, never executed */
+	private NoopTask[] queued;
+	private AsyncExecutorService<?, ?>[] services;
+	private Listener[] listeners;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUpTrial() {
+		pool = new DispatcherPool("CancelLatencyBenchmark", 1, 1, TimeUnit.SECONDS);
+		queued = Fixtures.newTasks(queuedCount);
+		services = new AsyncExecutorService<?, ?>[SUITES];
+		listeners = new Listener[SUITES];
+	}
+
+	@Setup(Level.Iteration)
+	public void setUpIteration() throws InterruptedException {
+		for (int i = 0; i < SUITES; i++) {
+			// dispose() releases the lease
+			AsyncExecutorService<Integer, AsyncRunnableTask<Integer>> service =
+				new AsyncExecutorService<>(pool.lease());
+			Listener listener = new Listener();
+			service.setListener(listener);
+			PendingTask task = new PendingTask();
+			service.add(task);
+			for (NoopTask t : queued) {
+				service.add(t);
+			}
+			service.execute();
+			listener.awaitStarted();
+			// A running task would delay cancellation until it reports
+			while (task.getState() != AsyncRunnable.State.PENDING) {
+				Thread.yield();
+			}
+			services[i] = service;
+			listeners[i] = listener;
+		}
+		next = 0;
+	}
+
+	@Benchmark
+	public void disposeToCancelled() throws InterruptedException {
+		int i = next++;
+		services[i].dispose();
+		listeners[i].awaitEnd();
+		services[i] = null;
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fr.coppernic.framework.art;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import fr.coppernic.framework.art.Fixtures.Listener;
+import fr.coppernic.framework.art.Fixtures.NoopTask;
+
+/**
+ * Throughput of add() and of a whole suite execution, for several suite sizes.
+ * <p>
+ * Each invocation fills a new executor with the same tasks, reset after their previous suite,
+ * and executes it. The "tasks" counter gives tasks per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ExecutorThroughputBenchmark {
+
+	@Param({"10", "1000", "100000", "1000000"})
+	public int suiteSize;
+
+	/**
+	 * Max tasks per dispatch, 1 for no batching
+	 */
+	@Param({"1", "64"})
+	public int batchSize;
+
+	private ExecutorDispatcher dispatcher;
+	private Listener listener;
+	private NoopTask[] tasks;
+	private List<AsyncRunnableTask<Integer>> taskList;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		dispatcher = ExecutorDispatcher.newSingleThread("ExecutorThroughputBenchmark");
+		listener = new Listener();
+		tasks = Fixtures.newTasks(suiteSize);
+		taskList = Arrays.<AsyncRunnableTask<Integer>>asList(tasks);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		dispatcher.quit();
+	}
+
+	/**
+	 * Tasks are never executed, the executor is dropped with its queue
+	 */
+	@Benchmark
+	public AsyncExecutorService<Integer, AsyncRunnableTask<Integer>> add(Counters counters) {
+		AsyncExecutorService<Integer, AsyncRunnableTask<Integer>> service = newService();
+		for (NoopTask task : tasks) {
+			service.add(task);
+		}
+		counters.tasks += suiteSize;
+		return service;
+	}
+
+	@Benchmark
+	public void addAllAndExecute(Counters counters) throws InterruptedException {
+		AsyncExecutorService<Integer, AsyncRunnableTask<Integer>> service = newService();
+		Fixtures.reset(tasks);
+		listener.reset();
+		service.addAll(taskList);
+		service.execute();
+		listener.awaitEnd();
+		counters.tasks += suiteSize;
+	}
+
+	private AsyncExecutorService<Integer, AsyncRunnableTask<Integer>> newService() {
+		AsyncExecutorService<Integer, AsyncRunnableTask<Integer>> service =
+			new AsyncExecutorService<>(dispatcher);
+		service.setListener(listener);
+		service.setBatching(batchSize, 1, TimeUnit.MILLISECONDS);
+		return service;
+	}
+
+	/**
+	 * Number of tasks processed, reported as an additional throughput metric
+	 */
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Counters {
+		public long tasks;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			tasks = 0;
+		}
+	}
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fr.coppernic.framework.art;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tasks and listener shared by benchmarks
+ */
+final class Fixtures {
+
+	static final long TIMEOUT_S = 60;
+
+	private Fixtures() {
+	}
+
+	static NoopTask[] newTasks(int count) {
+		NoopTask[] tasks = new NoopTask[count];
+		for (int i = 0; i < count; i++) {
+			tasks[i] = new NoopTask();
+		}
+		return tasks;
+	}
+
+	/**
+	 * Make done tasks executable again, instead of allocating new ones
+	 */
+	static void reset(AsyncRunnableTask<?>[] tasks) {
+		for (AsyncRunnableTask<?> task : tasks) {
+			task.reset();
+		}
+	}
+
+	/**
+	 * Task done as soon as it is executed
+	 */
+	static class NoopTask extends AsyncRunnableTask<Integer> {
+		@Override
+		public String getName() {
+			return "NoopTask";
+		}
+
+		@Override
+		public void execute() {
+			onDone(0);
+		}
+	}
+
+	/**
+	 * Task that stays pending until it is cancelled
+	 */
+	static class PendingTask extends AsyncRunnableTask<Integer> {
+		@Override
+		public String getName() {
+			return "PendingTask";
+		}
+
+		@Override
+		public void execute() {
+		}
+	}
+
+	/**
+	 * Listener releasing a latch at the end of the suite, or once a number of tasks have been
+	 * reported by a streaming executor
+	 */
+	static class Listener implements AsyncExecutorListener<Integer, AsyncRunnableTask<Integer>> {
+		private final AtomicLong reported = new AtomicLong();
+		private volatile long expected = 0;
+		private volatile CountDownLatch end = new CountDownLatch(1);
+		private volatile CountDownLatch started = new CountDownLatch(1);
+		private volatile CountDownLatch reportedAll = new CountDownLatch(1);
+
+		void reset() {
+			end = new CountDownLatch(1);
+			started = new CountDownLatch(1);
+		}
+
+		/**
+		 * Shall be called before adding the tasks
+		 *
+		 * @param count Number of tasks to be reported by {@link #awaitReported()}
+		 */
+		void expect(long count) {
+			reportedAll = new CountDownLatch(1);
+			expected = reported.get() + count;
+		}
+
+		void awaitReported() throws InterruptedException {
+			await(reportedAll);
+		}
+
+		void awaitStarted() throws InterruptedException {
+			await(started);
+		}
+
+		void awaitEnd() throws InterruptedException {
+			await(end);
+		}
+
+		private static void await(CountDownLatch latch) throws InterruptedException {
+			if (!latch.await(TIMEOUT_S, TimeUnit.SECONDS)) {
+				throw new IllegalStateException("Suite is stuck");
+			}
+		}
+
+		@Override
+		public void beforeTask(AsyncRunnableTask<Integer> task) {
+			started.countDown();
+		}
+
+		@Override
+		public void afterTask(AsyncRunnableTask<Integer> task, Integer res) {
+			if (reported.incrementAndGet() == expected) {
+				reportedAll.countDown();
+			}
+		}
+
+		@Override
+		public void onDone() {
+			end.countDown();
+		}
+
+		@Override
+		public void onCancelled() {
+			end.countDown();
+		}
+
+		@Override
+		public void onPaused() {
+		}
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fr.coppernic.framework.art;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+import fr.coppernic.framework.art.Fixtures.Listener;
+import fr.coppernic.framework.art.Fixtures.NoopTask;
+
+/**
+ * Average cost of one task streamed to a long-lived executor : add, beforeTask, run, onDone,
+ * afterTask, continueTask and executeTask of the next one.
+ * <p>
+ * Each invocation streams a burst of burstSize tasks, reset and added again, and waits for the
+ * last one to be reported. The "tasks" counter gives the time per task, the primary score the
+ * time per burst. With the gc profiler, gc.alloc.rate.norm gives the allocation per burst.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TaskLatencyBenchmark {
+
+	@Param({"10", "1000", "100000", "1000000"})
+	public int burstSize;
+
+	private ExecutorDispatcher dispatcher;
+	private AsyncExecutorService<Integer, AsyncRunnableTask<Integer>> service;
+	private Listener listener;
+	private NoopTask[] tasks;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		dispatcher = ExecutorDispatcher.newSingleThread("TaskLatencyBenchmark");
+		listener = new Listener();
+		tasks = Fixtures.newTasks(burstSize);
+		service = new AsyncExecutorService<>(dispatcher);
+		service.setListener(listener);
+		service.setStreaming(true);
+		service.execute();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws InterruptedException {
+		service.close();
+		listener.awaitEnd();
+		dispatcher.quit();
+	}
+
+	@Benchmark
+	public void doneToNextTask(Counters counters) throws InterruptedException {
+		listener.expect(burstSize);
+		for (NoopTask task : tasks) {
+			// Reported by the previous burst
+			task.reset();
+			service.add(task);
+		}
+		listener.awaitReported();
+		counters.tasks += burstSize;
+	}
+
+	/**
+	 * Number of tasks processed, reported as an additional average time
+	 */
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Counters {
+		public long tasks;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			tasks = 0;
+		}
+	}
+}
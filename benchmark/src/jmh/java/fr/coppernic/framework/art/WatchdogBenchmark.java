@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fr.coppernic.framework.art;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+import fr.coppernic.framework.art.Fixtures.NoopTask;
+
+/**
+ * Cost of arming and disarming a task watchdog, on a timer already holding armedCount watchdogs
+ * of other tasks
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WatchdogBenchmark {
+
+	private static final long TIMEOUT_MS = TimeUnit.HOURS.toMillis(1);
+
+	@Param({"10", "1000", "100000", "1000000"})
+	public int armedCount;
+
+	private HashedWheelTimer timer;
+	private NoopTask[] armed;
+	private NoopTask task;
+
+	@Setup
+	public void setUp() {
+		timer = new HashedWheelTimer("WatchdogBenchmark", 10, TimeUnit.MILLISECONDS, 512);
+		armed = Fixtures.newTasks(armedCount);
+		for (NoopTask t : armed) {
+			t.setWatchdogTimer(timer);
+			t.setWatchdog(TIMEOUT_MS, 0, 0);
+		}
+		task = new NoopTask();
+		task.setWatchdogTimer(timer);
+	}
+
+	@TearDown
+	public void tearDown() {
+		for (NoopTask t : armed) {
+			t.clearWatchdog();
+		}
+		timer.dispose();
+	}
+
+	@Benchmark
+	public void armDisarm() {
+		task.setWatchdog(TIMEOUT_MS, 0, 0);
+		task.clearWatchdog();
+	}
+}
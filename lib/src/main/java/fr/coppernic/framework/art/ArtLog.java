@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fr.coppernic.framework.art;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Log facade using android.util.Log on Android and java.util.logging elsewhere
+ */
+final class ArtLog {
+
+	private ArtLog() {
+	}
+
+	static void d(String tag, String msg) {
+		if (Platform.ANDROID) {
+			AndroidLog.d(tag, msg);
+		} else {
+			Logger.getLogger(tag).fine(msg);
+		}
+	}
+
+	static void i(String tag, String msg) {
+		if (Platform.ANDROID) {
+			AndroidLog.i(tag, msg);
+		} else {
+			Logger.getLogger(tag).info(msg);
+		}
+	}
+
+	static void w(String tag, String msg) {
+		if (Platform.ANDROID) {
+			AndroidLog.w(tag, msg);
+		} else {
+			Logger.getLogger(tag).warning(msg);
+		}
+	}
+
+	static void e(String tag, String msg) {
+		e(tag, msg, null);
+	}
+
+	static void e(String tag, String msg, Throwable t) {
+		if (Platform.ANDROID) {
+			AndroidLog.e(tag, msg, t);
+		} else {
+			Logger.getLogger(tag).log(Level.SEVERE, msg, t);
+		}
+	}
+
+	/**
+	 * Only loaded on Android
+	 */
+	private static final class AndroidLog {
+		static void d(String tag, String msg) {
+			android.util.Log.d(tag, msg);
+		}
+
+		static void i(String tag, String msg) {
+			android.util.Log.i(tag, msg);
+		}
+
+		static void w(String tag, String msg) {
+			android.util.Log.w(tag, msg);
+		}
+
+		static void e(String tag, String msg, Throwable t) {
+			android.util.Log.e(tag, msg, t);
+		}
+	}
+}
@@ -36,12 +36,37 @@ public interface AsyncExecutor<V, T extends AsyncRunnable<V>>
 	extends AsyncRunnableListener<V>, Disposable {
 
 	/**
-	 * Add a task to be executed
+	 * Priority of bulk tasks
+	 */
+	int PRIORITY_LOW = 0;
+	/**
+	 * Priority of tasks added with {@link #add(AsyncRunnable)}
+	 */
+	int PRIORITY_NORMAL = 1;
+	int PRIORITY_HIGH = 2;
+	/**
+	 * Highest priority
+	 */
+	int PRIORITY_URGENT = 3;
+
+	/**
+	 * Add a task to be executed with {@link #PRIORITY_NORMAL}
 	 *
 	 * @param command task to be executed
 	 */
 	void add(T command);
 
+	/**
+	 * Add a task to be executed before pending tasks of lower priority.
+	 * <p>
+	 * Tasks of the same priority are executed in the order they are added.
+	 *
+	 * @param command  task to be executed
+	 * @param priority from {@link #PRIORITY_LOW} to {@link #PRIORITY_URGENT}
+	 * @throws IllegalArgumentException if priority is out of range
+	 */
+	void add(T command, int priority);
+
 	/**
 	 * Add a collection of task to be executed.
 	 *
@@ -127,5 +152,9 @@ public interface AsyncExecutor<V, T extends AsyncRunnable<V>>
 		ERROR,
 		WRONG_STATE,
 		NO_TASKS,
+		/**
+		 * Task not added, queue is full
+		 */
+		REJECTED,
 	}
 }
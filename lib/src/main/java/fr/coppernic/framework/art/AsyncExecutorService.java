@@ -22,14 +22,19 @@
 
 package fr.coppernic.framework.art;
 
-import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Message;
-import android.util.Log;
 
 import java.io.InvalidObjectException;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 import fr.coppernic.framework.art.AsyncRunnable.State;
@@ -37,45 +42,309 @@ import fr.coppernic.framework.art.AsyncRunnable.State;
 
 /**
  * Executor service
+ * <p>
+ * Tasks are executed one after the other on a {@link Dispatcher}, either an Android looper or a
+ * plain java thread.
+ * <p>
+ * Executor does not lock : state changes are compare-and-set transitions and the current task is
+ * claimed atomically by the one that reports it (task completion or dispose), so that a
+ * cancellation from the UI thread never waits for the dispatcher thread.
+ * <p>
+ * With {@link #setBatching(int, long, TimeUnit)}, consecutive tasks completing synchronously
+ * are executed in a single dispatch instead of costing two round trips each.
+ * <p>
+ * In streaming mode ({@link #setStreaming(boolean)}), the executor is long-lived : tasks added
+ * while it runs are executed right away, it waits for new tasks when its queue is empty and
+ * {@link AsyncExecutorListener#onDone()} is called only after {@link #close()}.
+ * <p>
+ * Queue can be bounded with {@link #setCapacity(int, OverflowPolicy, long, TimeUnit)}. The
+ * {@link OverflowPolicy} tells what add() does when it is full, {@link #offer(AsyncRunnable)}
+ * never waits and lets producers slow down.
+ * <p>
+ * With a {@link ResultCache}, a {@link Cacheable} task whose cache key has a valid result is not
+ * executed : the cached result is reported as if the task had called onDone().
+ * <p>
+ * {@link Coalescable} tasks added while an identical task is in flight are attached to it :
+ * they are not executed, and get the result of the one in flight in their own
+ * {@link AsyncExecutorListener#afterTask(AsyncRunnable, Object)}.
+ * <p>
+ * {@link #submit(AsyncRunnable)} gives a {@link TaskFuture} of the result, to compose tasks
+ * without a listener.
  *
  * @author Bastien Paul
  */
 public class AsyncExecutorService<V, T extends AsyncRunnable<V>>
-	implements AsyncExecutor<V, T>, Handler.Callback {
+	implements AsyncExecutor<V, T> {
 
 	private static final String TAG = "AsyncExecutorService";
 	private static final boolean DEBUG = true;
 
-	private final Handler handler;
-	private final ConcurrentLinkedQueue<T> taskQueue =
-		new ConcurrentLinkedQueue<>();
-	//private final AtomicBoolean disposed = new AtomicBoolean(false);
+	private final Dispatcher dispatcher;
+	private final PriorityTaskQueue<T> taskQueue = new PriorityTaskQueue<>();
 	private final AtomicReference<State> mState = new AtomicReference<>(State.IDLE);
-	private T current = null;
-	private AsyncExecutorListener<V, T> listener = new DummyListener();
+	private final AtomicReference<T> current = new AtomicReference<>();
+	private volatile AsyncExecutorListener<V, T> listener = new DummyListener();
+	private volatile ExecutionObserver observer = null;
+	/* Set by pause(), wake-ups of the current task wait for resume() */
+	private volatile boolean paused = false;
+	private final AsyncRunnableTask.WakeUpGate wakeUpGate = new AsyncRunnableTask.WakeUpGate() {
+		@Override
+		public boolean isWakeUpDeferred() {
+			return paused;
+		}
+	};
+	private final Runnable batchRunner = new Runnable() {
+		@Override
+		public void run() {
+			runBatch();
+		}
+	};
+	private volatile int batchMaxTasks = 0;
+	private volatile long batchBudgetNanos = 0;
+	/* Thread running a batch, only this one reads and writes batchContinue */
+	private volatile Thread batchThread = null;
+	private boolean batchContinue = false;
+	private volatile boolean streaming = false;
+	private volatile boolean closed = false;
+	/* Streaming executor waiting for tasks, the one that resets it continues execution */
+	private final AtomicBoolean idle = new AtomicBoolean(false);
+	private volatile OverflowPolicy overflowPolicy = OverflowPolicy.REJECT;
+	private volatile long blockTimeoutNanos = 0;
+	private final AsyncRunnableListener<V> callerRunsListener = new CallerRunsListener();
+	private volatile ResultCache<V> resultCache = null;
+	/* Tasks in flight by coalescing key */
+	private final TaskFutures<V> futures = new TaskFutures<>();
+	private final ConcurrentMap<Object, Coalesced<T>> inFlight = new ConcurrentHashMap<>();
+	/* Result of current task found in cache, reported by cacheHits */
+	private V cachedResult = null;
+	private final Dispatcher.Target cacheHits = new Dispatcher.Target() {
+		@Override
+		public void onEvent(int what) {
+			T task = current.get();
+			V result = cachedResult;
+			cachedResult = null;
+			if (task != null) {
+				report(task, result, false);
+			}
+		}
+	};
 
+	/**
+	 * @param handlerThread Android thread executing tasks, started if needed
+	 */
 	public AsyncExecutorService(HandlerThread handlerThread) {
-		if (!handlerThread.isAlive()) {
-			handlerThread.start();
-		}
-		handler = new Handler(handlerThread.getLooper(), this);
+		this(new HandlerDispatcher(handlerThread));
+	}
+
+	/**
+	 * @param dispatcher Backend executing tasks
+	 */
+	public AsyncExecutorService(Dispatcher dispatcher) {
+		this.dispatcher = dispatcher;
 	}
 
 	/* ------------------- AsyncExecutor ------------------- */
 
 	@Override
 	public void add(T command) {
-		taskQueue.add(command);
+		add(command, PRIORITY_NORMAL);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * When queue is full, {@link OverflowPolicy} applies.
+	 *
+	 * @throws RejectedExecutionException if task is rejected by policy
+	 */
+	@Override
+	public void add(T command, int priority) {
+		if (streaming) {
+			checkNotClosed();
+		}
+		checkPriority(priority);
+		if (coalesce(command)) {
+			return;
+		}
+		try {
+			if (taskQueue.reserve() || handleOverflow(command, priority)) {
+				enqueueReserved(command, priority);
+			}
+		} catch (RuntimeException e) {
+			// Rejected, tasks attached in the meantime will not get any result
+			cancelCoalesced(command);
+			throw e;
+		}
 	}
 
 	@Override
 	public void addAll(Collection<T> c) {
-		taskQueue.addAll(c);
+		for (T command : c) {
+			add(command);
+		}
+	}
+
+	/**
+	 * Add a task and get the future of its result
+	 *
+	 * @param command task to be executed
+	 * @return Future done or cancelled when task reports
+	 * @throws RejectedExecutionException if task is rejected by policy
+	 */
+	public TaskFuture<V> submit(T command) {
+		return submit(command, PRIORITY_NORMAL);
+	}
+
+	/**
+	 * Add a task and get the future of its result
+	 *
+	 * @param command  task to be executed
+	 * @param priority from {@link #PRIORITY_LOW} to {@link #PRIORITY_URGENT}
+	 * @return Future done or cancelled when task reports
+	 * @throws RejectedExecutionException if task is rejected by policy
+	 */
+	public TaskFuture<V> submit(T command, int priority) {
+		// Registered first, task may be done before add() returns
+		TaskFuture<V> future = futures.register(command);
+		try {
+			add(command, priority);
+		} catch (RuntimeException e) {
+			futures.complete(command, null, true);
+			throw e;
+		}
+		return future;
+	}
+
+	/**
+	 * Add a task if there is room in the queue, without waiting
+	 *
+	 * @param command task to be executed
+	 * @return {@link RetCode#REJECTED} if queue is full, {@link RetCode#WRONG_STATE} if closed
+	 */
+	public RetCode offer(T command) {
+		return offer(command, PRIORITY_NORMAL);
+	}
+
+	/**
+	 * Add a task if there is room in the queue, without waiting
+	 *
+	 * @param command  task to be executed
+	 * @param priority from {@link #PRIORITY_LOW} to {@link #PRIORITY_URGENT}
+	 * @return {@link RetCode#REJECTED} if queue is full, {@link RetCode#WRONG_STATE} if closed
+	 */
+	public RetCode offer(T command, int priority) {
+		if (streaming && closed) {
+			return RetCode.WRONG_STATE;
+		}
+		checkPriority(priority);
+		if (coalesce(command)) {
+			return RetCode.OK;
+		} else if (!taskQueue.reserve()) {
+			cancelCoalesced(command);
+			return RetCode.REJECTED;
+		}
+		enqueueReserved(command, priority);
+		return RetCode.OK;
+	}
+
+	/**
+	 * Report results of {@link Cacheable} tasks from a cache, instead of executing them.
+	 * <p>
+	 * {@link AsyncExecutorListener#beforeTask(AsyncRunnable)} and
+	 * {@link AsyncExecutorListener#afterTask(AsyncRunnable, Object)} are still called for a
+	 * cached task, it stays IDLE.
+	 *
+	 * @param cache Cache, can be shared between executors. null to disable caching.
+	 */
+	public void setResultCache(ResultCache<V> cache) {
+		resultCache = cache;
+	}
+
+	/**
+	 * Bound the task queue.
+	 *
+	 * @param capacity Max number of tasks waiting for execution, 0 for no limit
+	 * @param policy   What add() does when queue is full
+	 * @param timeout  Max time to wait for {@link OverflowPolicy#BLOCK}
+	 * @param unit     Unit of timeout
+	 */
+	public void setCapacity(int capacity, OverflowPolicy policy, long timeout, TimeUnit unit) {
+		overflowPolicy = policy;
+		blockTimeoutNanos = unit.toNanos(timeout);
+		taskQueue.setCapacity(capacity);
+	}
+
+	/**
+	 * Keep the executor running when its queue is empty, until {@link #close()} is called.
+	 * <p>
+	 * Shall be called before {@link #execute()}.
+	 *
+	 * @param streaming true to enable streaming mode
+	 * @throws IllegalStateException if executor has already been executed
+	 */
+	public void setStreaming(boolean streaming) {
+		if (mState.get() != State.IDLE) {
+			throw new IllegalStateException("Streaming mode shall be set before execution");
+		}
+		this.streaming = streaming;
+	}
+
+	/**
+	 * End streaming : tasks already added are executed, then
+	 * {@link AsyncExecutorListener#onDone()} is called. No task can be added anymore.
+	 *
+	 * @return {@link RetCode#WRONG_STATE} if not streaming or already closed
+	 */
+	public RetCode close() {
+		if (!streaming || closed) {
+			return RetCode.WRONG_STATE;
+		}
+		closed = true;
+		if (mState.get() == State.IDLE) {
+			// Never executed, nothing will report
+			finish();
+		} else if (idle.compareAndSet(true, false)) {
+			// Waiting for tasks, finish now
+			continueTask();
+		}
+		return RetCode.OK;
+	}
+
+	/**
+	 * Choose how pending tasks of different priorities are selected.
+	 * <p>
+	 * Default is {@link PriorityTaskQueue.Selection#STRICT} with
+	 * {@link PriorityTaskQueue#DEFAULT_AGING_THRESHOLD}.
+	 *
+	 * @param selection      Selection between priority levels
+	 * @param agingThreshold Number of times a priority level can be skipped before it is
+	 *                       served, 0 to disable aging
+	 */
+	public void setPrioritySelection(PriorityTaskQueue.Selection selection, int agingThreshold) {
+		taskQueue.configure(selection, agingThreshold);
+	}
+
+	/**
+	 * Run several tasks in a single dispatch.
+	 * <p>
+	 * When a task calls onDone() or onCancel() synchronously in its execute(), next task is
+	 * executed right away in the same dispatch instead of being posted. Dispatcher is given
+	 * back when maxTasks tasks have been executed, when budget is elapsed or when a task
+	 * completes asynchronously, so that other messages of the looper are not delayed too much.
+	 *
+	 * @param maxTasks Max number of tasks per dispatch, 1 or less disables batching
+	 * @param budget   Max duration of a dispatch. A task is never interrupted, it is checked
+	 *                 between tasks.
+	 * @param unit     Unit of budget
+	 */
+	public void setBatching(int maxTasks, long budget, TimeUnit unit) {
+		batchBudgetNanos = unit.toNanos(budget);
+		batchMaxTasks = maxTasks > 1 ? maxTasks : 0;
 	}
 
 	@Override
-	public synchronized boolean isExecuting() {
-		return current != null;
+	public boolean isExecuting() {
+		return current.get() != null;
 	}
 
 	@Override
@@ -83,6 +352,15 @@ public class AsyncExecutorService<V, T extends AsyncRunnable<V>>
 		this.listener = listener;
 	}
 
+	/**
+	 * Observe the life of tasks, see {@link ExecutorMetrics}. Shall be set before adding tasks.
+	 *
+	 * @param observer Observer, null to remove it
+	 */
+	public void setObserver(ExecutionObserver observer) {
+		this.observer = observer;
+	}
+
 	/**
 	 * Execute a list of tasks
 	 * <p/>
@@ -97,33 +375,32 @@ public class AsyncExecutorService<V, T extends AsyncRunnable<V>>
 	 * @return true if execution is started, false if there is no tasks to execute.
 	 */
 	@Override
-	public synchronized RetCode execute() {
-		if (mState.get() != State.IDLE) {
+	public RetCode execute() {
+		if (!mState.compareAndSet(State.IDLE, State.RUNNING)) {
 			return RetCode.WRONG_STATE;
 		}
-		mState.set(State.RUNNING);
 		return launchExecution();
 	}
 
 	@Override
-	public synchronized RetCode executeAndPause() {
-		if (mState.get() != State.IDLE) {
+	public RetCode executeAndPause() {
+		if (!mState.compareAndSet(State.IDLE, State.PAUSING)) {
 			return RetCode.WRONG_STATE;
 		}
-		mState.set(State.PAUSING);
 		return launchExecution();
 	}
 
 	@Override
-	public synchronized RetCode executeCurrent() {
+	public RetCode executeCurrent() {
+		T task = current.get();
 		if (mState.get() != State.RUNNING) {
 			return RetCode.WRONG_STATE;
-		} else if (current == null) {
+		} else if (task == null) {
 			return RetCode.NO_TASKS;
-		} else if (!current.canRun()) {
+		} else if (!task.canRun()) {
 			return RetCode.WRONG_STATE;
 		} else {
-			handler.post(current);
+			dispatcher.post(task);
 			return RetCode.OK;
 		}
 	}
@@ -135,64 +412,84 @@ public class AsyncExecutorService<V, T extends AsyncRunnable<V>>
 	 * @param param result of the task
 	 */
 	@Override
-	public synchronized void onDone(AsyncRunnable<V> task, V param) {
+	public void onDone(AsyncRunnable<V> task, V param) {
+		report(task, param, true);
+	}
+
+	/**
+	 * @param store true to store result in cache, false if result comes from cache
+	 */
+	private void report(AsyncRunnable<V> task, V param, boolean store) {
 		logd("onDone");
-		if (current == null) {
+		if (!claim(task)) {
 			//Task was cancelled, nothing to do
 			logd("Current is null - task was cancelled");
-		} else if (task != current) {
-			throw new RuntimeException(new InvalidObjectException(task + " should be " + current));
-		} else {
-			// hook
-			logd("State is " + mState.get());
-			//noinspection unchecked
-			listener.afterTask((T) task, param);
+			return;
+		}
+		ResultCache<V> cache = resultCache;
+		if (store && cache != null) {
+			Object key = cacheKeyOf(task);
+			if (key != null) {
+				cache.put(key, param);
+			}
+		}
+		// hook
+		logd("State is " + mState.get());
+		@SuppressWarnings("unchecked")
+		T t = (T) task;
+		listener.afterTask(t, param);
+		notifyFinished(task, param, false);
+		finishCoalesced(task, param, false);
+		while (true) {
 			switch (mState.get()) {
-				case IDLE:
-					//no op
-					break;
 				case RUNNING:
 					continueTask();
-					break;
+					return;
 				case PAUSING:
-					mState.set(State.PENDING);
-					listener.onPaused();
+					if (mState.compareAndSet(State.PAUSING, State.PENDING)) {
+						listener.onPaused();
+						return;
+					}
+					// resumed or disposed in the meantime
 					break;
 				case PENDING:
 					//no op
 					listener.onPaused();
-					break;
+					return;
+				case CANCELLED:
+					tearDown();
+					listener.onCancelled();
+					return;
+				case IDLE:
 				case DONE:
+				default:
 					//no op
-					break;
-				case CANCELLED:
-					onCancel(task, param);
-					break;
+					return;
 			}
 		}
 	}
 
 	@Override
-	public synchronized void onCancel(AsyncRunnable<V> task, V param) {
-		//noinspection StatementWithEmptyBody
-		if (current == null) {
+	public void onCancel(AsyncRunnable<V> task, V param) {
+		if (!claim(task)) {
 			//Task was cancelled, nothing to do
-		} else if (task != current) {
-			throw new RuntimeException(
-				new InvalidObjectException(task + " should be " + current));
-		} else {
-			//noinspection unchecked
-			listener.afterTask((T) task, param);
-			tearDown();
-			listener.onCancelled();
+			return;
 		}
+		@SuppressWarnings("unchecked")
+		T t = (T) task;
+		listener.afterTask(t, param);
+		notifyFinished(task, param, true);
+		finishCoalesced(task, param, true);
+		tearDown();
+		listener.onCancelled();
 	}
 
 	@Override
-	public synchronized void doActionForAllPendingTasks(TaskAction<V> action) {
+	public void doActionForAllPendingTasks(TaskAction<V> action) {
 		// Execute action only if current task is not running
-		if (current != null && !current.getState().equals(State.RUNNING)) {
-			action.action(current);
+		T running = current.get();
+		if (running != null && !running.getState().equals(State.RUNNING)) {
+			action.action(running);
 		}
 		// Execute action for all pending tasks
 		for (AsyncRunnable<V> task : taskQueue) {
@@ -201,22 +498,31 @@ public class AsyncExecutorService<V, T extends AsyncRunnable<V>>
 	}
 
 	@Override
-	public synchronized RetCode pause() {
-		if (mState.get() != State.RUNNING) {
+	public RetCode pause() {
+		if (!mState.compareAndSet(State.RUNNING, State.PAUSING)) {
 			return RetCode.WRONG_STATE;
-		} else {
-			mState.set(State.PAUSING);
-			return RetCode.OK;
 		}
+		paused = true;
+		notifyPaused(true);
+		if (idle.compareAndSet(true, false)
+			&& mState.compareAndSet(State.PAUSING, State.PENDING)) {
+			// Streaming with no task : no task will report, paused right now
+			listener.onPaused();
+		}
+		return RetCode.OK;
 	}
 
 	@Override
-	public synchronized RetCode resume() {
-		if (mState.get() == State.PAUSING) {
-			mState.set(State.RUNNING);
+	public RetCode resume() {
+		if (mState.compareAndSet(State.PAUSING, State.RUNNING)) {
+			// Current task is still executing, it will continue
+			resumeWakeUps();
+			notifyPaused(false);
 			return RetCode.OK;
-		} else if (mState.get() == State.PENDING) {
-			mState.set(State.RUNNING);
+		} else if (mState.compareAndSet(State.PENDING, State.RUNNING)) {
+			// No task executing, we are the only one that can continue
+			paused = false;
+			notifyPaused(false);
 			continueTask();
 			return RetCode.OK;
 		} else {
@@ -226,10 +532,11 @@ public class AsyncExecutorService<V, T extends AsyncRunnable<V>>
 
 	@Override
 	public RetCode executeOneTask() {
-		if (mState.get() != State.PENDING) {
+		if (!mState.compareAndSet(State.PENDING, State.PAUSING)) {
 			return RetCode.WRONG_STATE;
 		} else {
-			mState.set(State.PAUSING);
+			// This task is executed as if running, it may be woken up
+			paused = false;
 			continueTask();
 			return RetCode.OK;
 		}
@@ -242,7 +549,12 @@ public class AsyncExecutorService<V, T extends AsyncRunnable<V>>
 
 	/* ------------------- Handler.Callback ------------------- */
 
-	@Override
+	/**
+	 * @param msg Message
+	 * @return false, executor does not handle messages
+	 * @deprecated Executor is not a Handler.Callback anymore, it runs on a {@link Dispatcher}
+	 */
+	@Deprecated
 	public boolean handleMessage(Message msg) {
 		return false;
 	}
@@ -250,24 +562,31 @@ public class AsyncExecutorService<V, T extends AsyncRunnable<V>>
 	/* ------------------- Disposable ------------------- */
 
 	/**
-	 * Stops the handler thread given to the Executor !
-	 * FIXME why is this synchronized ?
+	 * Stops the dispatcher given to the Executor !
+	 * <p>
+	 * Does not block : if current task is running, the end of the cancellation is done when the
+	 * task reports.
 	 */
 	@Override
-	public synchronized void dispose() {
-		if (mState.get() == State.CANCELLED) {
+	public void dispose() {
+		if (mState.getAndSet(State.CANCELLED) == State.CANCELLED) {
 			//Already cancelled;
 			return;
 		}
-
-		mState.set(State.CANCELLED);
 		if (isExecuting()) {
 			cancel();
+		} else if (idle.compareAndSet(true, false)) {
+			// Streaming with no task : no task will report, cancelled right now
+			tearDown();
+			listener.onCancelled();
+		} else {
+			futures.cancelAll();
+			DispatcherPool.releaseLease(dispatcher);
 		}
 	}
 
-	protected synchronized T getCurrent() {
-		return current;
+	protected T getCurrent() {
+		return current.get();
 	}
 
 	private void initRunnableAsync(T command) {
@@ -279,9 +598,12 @@ public class AsyncExecutorService<V, T extends AsyncRunnable<V>>
 			initRunnableAsync(command);
 		}
 
-		current = taskQueue.poll();
-		if (current != null) {
-			executeTask(current);
+		T task = taskQueue.poll();
+		if (task != null) {
+			executeTask(task);
+			return RetCode.OK;
+		} else if (streaming && !closed) {
+			waitForTasks();
 			return RetCode.OK;
 		} else {
 			listener.onDone();
@@ -290,56 +612,464 @@ public class AsyncExecutorService<V, T extends AsyncRunnable<V>>
 	}
 
 	private void executeTask(T task) {
-		current = task;
+		current.set(task);
 		// Hook
-		listener.beforeTask(current);
+		listener.beforeTask(task);
+		ExecutionObserver o = observer;
+		if (task instanceof AsyncRunnableTask) {
+			// Observer of a previous executor shall not see this execution
+			((AsyncRunnableTask<?>) task).setObserver(o);
+			((AsyncRunnableTask<?>) task).setWakeUpGate(wakeUpGate);
+		}
+		if (o != null) {
+			o.onTaskStarted(task);
+		}
+		if (mState.get() == State.CANCELLED) {
+			// Disposed after the previous task was claimed, dispose() may not have seen this one
+			cancel();
+			return;
+		}
 		// Execute task
-		handler.post(current);
+		ResultCache.Entry<V> cached = lookUpCache(task);
+		if (cached != null) {
+			// Reported on the dispatcher, like a task that would have been executed
+			cachedResult = cached.getValue();
+			dispatcher.send(cacheHits, 0);
+		} else if (batchMaxTasks == 0) {
+			dispatcher.post(task);
+		} else if (batchThread == Thread.currentThread()) {
+			// Next task of the batch
+			batchContinue = true;
+		} else {
+			dispatcher.post(batchRunner);
+		}
+	}
+
+	private ResultCache.Entry<V> lookUpCache(T task) {
+		ResultCache<V> cache = resultCache;
+		if (cache == null) {
+			return null;
+		}
+		Object key = cacheKeyOf(task);
+		return key == null ? null : cache.get(key);
+	}
+
+	/**
+	 * @return Cache key of a {@link Cacheable} task, null for other tasks
+	 */
+	private static Object cacheKeyOf(AsyncRunnable<?> task) {
+		return task instanceof Cacheable ? ((Cacheable) task).getCacheKey() : null;
 	}
 
-	//FIXME why is this synchronized ?
-	private synchronized void cancel() {
+	/**
+	 * Execute current task and the following ones as long as they complete synchronously,
+	 * within the limits of the batch.
+	 */
+	private void runBatch() {
+		boolean inline = Dispatchers.setInline(true);
+		batchThread = Thread.currentThread();
+		long deadline = System.nanoTime() + batchBudgetNanos;
+		int count = 0;
+		try {
+			do {
+				batchContinue = false;
+				T task = current.get();
+				if (task == null) {
+					break;
+				}
+				task.run();
+				count++;
+			} while (batchContinue && count < batchMaxTasks && System.nanoTime() < deadline);
+		} finally {
+			batchThread = null;
+			Dispatchers.setInline(inline);
+		}
+		if (batchContinue) {
+			// Give the dispatcher back to other messages before next batch
+			dispatcher.post(batchRunner);
+		}
+	}
+
+	/**
+	 * Take ownership of the report of a task. Only one of task completion, task cancellation
+	 * and dispose can claim a task.
+	 *
+	 * @param task Task reporting
+	 * @return true if caller has to report the task, false if it was already reported
+	 */
+	private boolean claim(AsyncRunnable<V> task) {
+		T expected = current.get();
+		if (expected == null) {
+			return false;
+		} else if (task != expected) {
+			throw new RuntimeException(new InvalidObjectException(task + " should be " + expected));
+		}
+		return current.compareAndSet(expected, null);
+	}
+
+	private void cancel() {
 		taskQueue.clear();
-		State previous = current.getState();
+		T task = current.get();
+		if (task == null) {
+			// Reported in the meantime
+			return;
+		}
+		State previous = task.getState();
 		//Cancel the current task
-		current.cancel();
+		task.cancel();
 
 		//noinspection StatementWithEmptyBody
 		if (previous.equals(State.RUNNING)) {
 			// RUNNING : the current task is running. It will call onDone or onCancel soon !
 			// We have to wait for the task to finish.
-			Log.i(TAG, "Cancel : waiting for task to finish...");
+			ArtLog.i(TAG, "Cancel : waiting for task to finish...");
 		} else {
 			// IDLE : task is not executed yet, but we are killing the looper before.
 			// DONE : task is done, nothing to do
 			// PENDING : task is waiting to be executed ! -> onDone or onCancel will be called
 			// some days
 			// do not process any more messages (even is there are some in pipe)
-			handler.getLooper().quit();
-			onCancel(current, null);
+			dispatcher.quit();
+			onCancel(task, null);
 		}
 	}
 
 	private void continueTask() {
-		current = taskQueue.poll();
-		if (current != null) {
-			executeTask(current);
+		T task = taskQueue.poll();
+		if (task != null) {
+			executeTask(task);
+		} else if (streaming && !closed) {
+			waitForTasks();
 		} else {
 			//No more task
-			tearDown();
+			finish();
+		}
+	}
+
+	/**
+	 * End of the suite, it is cancelled if disposed while its last task was reported
+	 */
+	private void finish() {
+		if (tearDown()) {
 			listener.onDone();
+		} else {
+			listener.onCancelled();
+		}
+	}
+
+	/**
+	 * Apply overflow policy to a task that does not fit in the queue
+	 *
+	 * @return true if a place has been reserved for the task, false if it has been handled
+	 * otherwise
+	 */
+	private boolean handleOverflow(T command, int priority) {
+		switch (overflowPolicy) {
+			case BLOCK:
+				try {
+					if (taskQueue.reserve(blockTimeoutNanos, TimeUnit.NANOSECONDS)) {
+						return true;
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				throw new RejectedExecutionException("Queue still full, " + command + " rejected");
+			case DROP_OLDEST:
+				// Place of the dropped task goes to the new one, other producers cannot take it
+				T oldest = taskQueue.takeOldestPlace(priority);
+				if (oldest == null) {
+					// Nothing as important queued, or queue full of places not filled yet
+					throw new RejectedExecutionException("Queue full, " + command + " rejected");
+				}
+				ArtLog.w(TAG, "Queue full, dropping " + oldest);
+				oldest.cancel();
+				notifyFinished(oldest, null, true);
+				cancelCoalesced(oldest);
+				return true;
+			case CALLER_RUNS:
+				runInCaller(command);
+				return false;
+			case REJECT:
+			default:
+				throw new RejectedExecutionException("Queue full, " + command + " rejected");
+		}
+	}
+
+	private void enqueueReserved(T command, int priority) {
+		if (streaming) {
+			initRunnableAsync(command);
+		}
+		ExecutionObserver o = observer;
+		if (o != null) {
+			o.onTaskQueued(command);
+		}
+		taskQueue.addReserved(command, priority);
+		wakeUpIdle();
+	}
+
+	/**
+	 * Execute a task in calling thread, out of the queue. It is reported to the listener of
+	 * the executor but does not change the state of the suite.
+	 */
+	private void runInCaller(T command) {
+		command.setListener(callerRunsListener);
+		listener.beforeTask(command);
+		ExecutionObserver o = observer;
+		if (command instanceof AsyncRunnableTask) {
+			((AsyncRunnableTask<?>) command).setObserver(o);
+			// Out of the suite, pausing it does not concern this task
+			((AsyncRunnableTask<?>) command).setWakeUpGate(null);
+		}
+		if (o != null) {
+			o.onTaskQueued(command);
+			o.onTaskStarted(command);
+		}
+		command.run();
+	}
+
+	/**
+	 * Streaming queue is empty : wait for {@link #add(AsyncRunnable)} or {@link #close()}
+	 */
+	private void waitForTasks() {
+		idle.set(true);
+		// A task may have been added, or executor closed or disposed, before idle was set
+		boolean disposed = mState.get() == State.CANCELLED;
+		if ((!taskQueue.isEmpty() || closed || disposed) && idle.compareAndSet(true, false)) {
+			if (disposed) {
+				finish();
+			} else {
+				continueTask();
+			}
+		}
+	}
+
+	/**
+	 * Continue execution if a streaming executor is waiting for tasks
+	 */
+	private void wakeUpIdle() {
+		State state = mState.get();
+		if ((state == State.RUNNING || state == State.PAUSING) && idle.compareAndSet(true, false)) {
+			continueTask();
+		}
+	}
+
+	/**
+	 * Accept wake-ups again, and post the one of the current task deferred while paused
+	 */
+	private void resumeWakeUps() {
+		paused = false;
+		T task = current.get();
+		if (task instanceof AsyncRunnableTask) {
+			((AsyncRunnableTask<?>) task).postDeferredWakeUp();
+		}
+	}
+
+	private static void checkPriority(int priority) {
+		if (priority < PRIORITY_LOW || priority > PRIORITY_URGENT) {
+			throw new IllegalArgumentException("Wrong priority : " + priority);
+		}
+	}
+
+	private void checkNotClosed() {
+		if (closed) {
+			throw new IllegalStateException("Executor is closed");
+		}
+	}
+
+	/**
+	 * Attach a task to an identical one in flight
+	 *
+	 * @return true if task has been attached, false if it has to be executed. In this case, it
+	 * is registered as in flight.
+	 */
+	private boolean coalesce(T command) {
+		Object key = coalescingKeyOf(command);
+		if (key == null) {
+			return false;
+		}
+		while (true) {
+			Coalesced<T> leader = inFlight.get(key);
+			if (leader == null) {
+				if (inFlight.putIfAbsent(key, new Coalesced<>(command)) == null) {
+					return false;
+				}
+			} else if (leader.attach(command)) {
+				logd(command + " attached to " + leader.task);
+				return true;
+			}
+			// Leader has just finished, try again
 		}
 	}
 
-	private void tearDown() {
+	/**
+	 * Task will not be executed, do not attach other tasks to it anymore
+	 *
+	 * @return Tasks that were attached, empty if task was not in flight
+	 */
+	private List<T> releaseCoalesced(AsyncRunnable<V> task) {
+		Object key = coalescingKeyOf(task);
+		if (key == null) {
+			return Collections.emptyList();
+		}
+		Coalesced<T> leader = inFlight.get(key);
+		if (leader == null || leader.task != task) {
+			return Collections.emptyList();
+		}
+		inFlight.remove(key, leader);
+		return leader.close();
+	}
+
+	/**
+	 * @return Coalescing key of a {@link Coalescable} task, null for other tasks
+	 */
+	private static Object coalescingKeyOf(AsyncRunnable<?> task) {
+		return task instanceof Coalescable ? ((Coalescable) task).getCoalescingKey() : null;
+	}
+
+	/**
+	 * Give the result of a task to the ones attached to it
+	 */
+	private void finishCoalesced(AsyncRunnable<V> task, V param, boolean cancelled) {
+		for (T follower : releaseCoalesced(task)) {
+			if (cancelled) {
+				follower.cancel();
+			}
+			listener.beforeTask(follower);
+			listener.afterTask(follower, param);
+			notifyFinished(follower, param, cancelled);
+		}
+	}
+
+	private void cancelCoalesced(AsyncRunnable<V> task) {
+		for (T follower : releaseCoalesced(task)) {
+			follower.cancel();
+			notifyFinished(follower, null, true);
+		}
+	}
+
+	/**
+	 * Release tasks of the suite and a leased dispatcher, suite is DONE unless it has been
+	 * disposed
+	 *
+	 * @return false if suite is CANCELLED
+	 */
+	private boolean tearDown() {
+		for (Coalesced<T> leader : inFlight.values()) {
+			cancelCoalesced(leader.task);
+		}
 		taskQueue.clear();
-		current = null;
-		mState.set(State.DONE);
+		futures.cancelAll();
+		current.set(null);
+		DispatcherPool.releaseLease(dispatcher);
+		while (true) {
+			State state = mState.get();
+			if (state == State.CANCELLED) {
+				return false;
+			} else if (state == State.DONE || mState.compareAndSet(state, State.DONE)) {
+				return true;
+			}
+		}
+	}
+
+	private void notifyFinished(AsyncRunnable<V> task, V param, boolean cancelled) {
+		// Observer first : once the future is done, a journal has already recorded the task
+		ExecutionObserver o = observer;
+		if (o != null) {
+			o.onTaskFinished(task, cancelled);
+		}
+		futures.complete(task, param, cancelled);
+	}
+
+	private void notifyPaused(boolean paused) {
+		ExecutionObserver o = observer;
+		if (o == null) {
+			return;
+		} else if (paused) {
+			o.onPaused();
+		} else {
+			o.onResumed();
+		}
 	}
 
 	private void logd(String msg) {
 		if (DEBUG) {
-			Log.d(TAG, msg);
+			ArtLog.d(TAG, msg);
+		}
+	}
+
+	/**
+	 * What add() does when the queue is full
+	 */
+	public enum OverflowPolicy {
+		/**
+		 * Wait for room until timeout, then throw {@link RejectedExecutionException}
+		 */
+		BLOCK,
+		/**
+		 * Throw {@link RejectedExecutionException}
+		 */
+		REJECT,
+		/**
+		 * Cancel the oldest task of the lowest priority to make room. Task is rejected as with
+		 * {@link #REJECT} if all queued tasks have a higher priority.
+		 */
+		DROP_OLDEST,
+		/**
+		 * Execute the task in the thread calling add()
+		 */
+		CALLER_RUNS,
+	}
+
+	/**
+	 * Task in flight and identical tasks attached to it
+	 */
+	private static class Coalesced<T> {
+		final T task;
+		private List<T> followers = new ArrayList<>();
+
+		Coalesced(T task) {
+			this.task = task;
+		}
+
+		/**
+		 * @return false if task is not in flight anymore
+		 */
+		synchronized boolean attach(T follower) {
+			if (followers == null) {
+				return false;
+			}
+			followers.add(follower);
+			return true;
+		}
+
+		/**
+		 * @return Attached tasks, no task can be attached after
+		 */
+		synchronized List<T> close() {
+			List<T> list = followers == null ? Collections.<T>emptyList() : followers;
+			followers = null;
+			return list;
+		}
+	}
+
+	private class CallerRunsListener implements AsyncRunnableListener<V> {
+
+		@Override
+		public void onDone(AsyncRunnable<V> task, V param) {
+			@SuppressWarnings("unchecked")
+			T t = (T) task;
+			listener.afterTask(t, param);
+			notifyFinished(task, param, false);
+			finishCoalesced(task, param, false);
+		}
+
+		@Override
+		public void onCancel(AsyncRunnable<V> task, V param) {
+			@SuppressWarnings("unchecked")
+			T t = (T) task;
+			listener.afterTask(t, param);
+			notifyFinished(task, param, true);
+			finishCoalesced(task, param, true);
 		}
 	}
 
@@ -347,27 +1077,27 @@ public class AsyncExecutorService<V, T extends AsyncRunnable<V>>
 
 		@Override
 		public void beforeTask(T task) {
-			Log.e(TAG, "No listener set");
+			ArtLog.e(TAG, "No listener set");
 		}
 
 		@Override
 		public void afterTask(T task, V param) {
-			Log.e(TAG, "No listener set");
+			ArtLog.e(TAG, "No listener set");
 		}
 
 		@Override
 		public void onDone() {
-			Log.e(TAG, "No listener set");
+			ArtLog.e(TAG, "No listener set");
 		}
 
 		@Override
 		public void onCancelled() {
-			Log.e(TAG, "No listener set");
+			ArtLog.e(TAG, "No listener set");
 		}
 
 		@Override
 		public void onPaused() {
-			Log.e(TAG, "No listener set");
+			ArtLog.e(TAG, "No listener set");
 		}
 	}
 }
@@ -22,32 +22,116 @@
 
 package fr.coppernic.framework.art;
 
+import android.annotation.TargetApi;
+import android.os.Build;
 import android.os.Handler;
-import android.os.Looper;
 import android.os.Message;
-import android.util.Log;
 
+import java.io.FileDescriptor;
 import java.lang.ref.WeakReference;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Base implementation of an Async task
+ * <p>
+ * Completion is reported to the listener through the {@link Dispatcher} of the thread that
+ * first ran the task, see {@link Dispatchers#myDispatcher()}. Reports are sent as dispatcher
+ * events, see {@link Dispatcher#send(Dispatcher.Target, int)} : on a {@link HandlerDispatcher},
+ * no object is allocated when a task is done or cancelled.
+ * <p>
+ * A task waiting for external data returns from {@link #execute()} without calling onDone()
+ * and stays PENDING. Instead of polling, the data source calls {@link #wakeUp()} (or
+ * {@link #wakeUpWhenReadable(FileDescriptor)} is used) to execute it again on its dispatcher.
+ * <p>
+ * With a {@link RetryPolicy}, transient failures are executed again after a backoff delay
+ * measured by the watchdog timer, the dispatcher is free in the meantime.
+ * <p>
+ * A task is executed once. To execute it again instead of allocating a new one, call
+ * {@link #reset()} once it has been reported, or obtain it from a {@link TaskPool}.
+ * <p>
+ * Lifecycle transitions are atomic compare-and-set operations, {@link #run()},
+ * {@link #cancel()}, {@link #onDone(Object)} and {@link #onCancel(Object)} never block each other.
  *
  * @author Bastien Paul
  */
-public abstract class AsyncRunnableTask<V> implements AsyncRunnable<V>, Handler.Callback {
+public abstract class AsyncRunnableTask<V> implements AsyncRunnable<V> {
 
 	private static final String TAG = "AsyncRunnableTask";
 	private static final boolean DEBUG = false;
-	private final Object mutex = new Object();
+
+	/* Transition table : allowed previous states of each transition */
+	private static final State[] RUN_FROM = {State.IDLE, State.PENDING};
+	private static final State[] DONE_FROM = {State.RUNNING, State.PENDING};
+	private static final State[] CANCEL_REPORT_FROM = {State.RUNNING, State.PENDING, State.CANCELLED};
+	private static final State[] CANCEL_FROM = {State.PENDING, State.RUNNING, State.IDLE};
+
+	private static final int EVENT_DONE = 1;
+	private static final int EVENT_CANCELLED = 2;
+	private static final int EVENT_WAKE_UP = 3;
+
+	/* Wake-up requests */
+	private static final int WAKE_NONE = 0;
+	private static final int WAKE_REQUESTED = 1;
+	private static final int WAKE_POSTED = 2;
+
 	private final AtomicReference<State> mState = new AtomicReference<>(State.IDLE);
-	private Handler handler = null;
-	private AsyncRunnableListener<V> listener = null;
+	private final AtomicReference<Timeout<V>> timeoutTask = new AtomicReference<>();
+	private volatile Dispatcher dispatcher = null;
+	/* Handler delivering messages to handleMessage(), built by the deprecated getHandler() */
+	private Handler legacyHandler = null;
+	private volatile AsyncRunnableListener<V> listener = null;
 	private boolean firstExecution = true;
-	private Timer timer = null;
-	private Timeout<V> timeoutTask = null;
+	private volatile HashedWheelTimer timer = HashedWheelTimer.getDefault();
+	/*
+	 * Timestamps in ns, for observers. Executor ones are set by the observer. Written by the
+	 * thread that moves the task to its next state, read from any thread.
+	 */
+	private volatile long queuedAt = 0;
+	private volatile long startedAt = 0;
+	private volatile long firstRunAt = 0;
+	private volatile long pendingNanos = 0;
+	private volatile boolean timedOut = false;
+	private volatile long pendingSince = 0;
+	/* Start of the pending period that ended with the report, 0 if task was not pending */
+	private volatile long reportPendingSince = 0;
+	private volatile RetryPolicy<V> retryPolicy = null;
+	private final AtomicReference<Retry<V>> retryTask = new AtomicReference<>();
+	private volatile int retries = 0;
+	/* Set when a retry posts the task, its next execution is a new attempt */
+	private volatile boolean retryPosted = false;
+	private final AtomicInteger wakeUp = new AtomicInteger(WAKE_NONE);
+	/* Thread inside run(), reset() from another thread waits for it to return */
+	private volatile Thread runner = null;
+	/* Notified when runner is cleared */
+	private final Object runnerLock = new Object();
+	/* Incremented by reset(), tells run() that it has been reset by its own report */
+	private volatile int generation = 0;
+	/* Observer of the executor running the task, notified of each execution */
+	private volatile ExecutionObserver observer = null;
+	/* Executor running the task, defers wake-ups while it is paused */
+	private volatile WakeUpGate wakeUpGate = null;
+	/* Param of onDone or onCancel, waiting to be reported to listener */
+	private V report = null;
+	private final Dispatcher.Target reporter = new Dispatcher.Target() {
+		@Override
+		public void onEvent(int what) {
+			V param = report;
+			report = null;
+			if (what == EVENT_DONE) {
+				listener.onDone(AsyncRunnableTask.this, param);
+			} else if (what == EVENT_CANCELLED) {
+				listener.onCancel(AsyncRunnableTask.this, param);
+			}
+		}
+	};
+	private final Dispatcher.Target waker = new Dispatcher.Target() {
+		@Override
+		public void onEvent(int what) {
+			wakeUp();
+		}
+	};
 
 	/* ********** AsyncRunnable ********** */
 
@@ -57,36 +141,33 @@ public abstract class AsyncRunnableTask<V> implements AsyncRunnable<V>, Handler.
 	}
 
 	@Override
-	public synchronized void onDone(final V param) {
-		if (mState.get() == State.CANCELLED) {
+	public void onDone(V param) {
+		if (scheduleRetry(param)) {
+			return;
+		}
+		State previous = transition(DONE_FROM, State.DONE, State.CANCELLED);
+		if (previous == State.PENDING) {
+			pendingNanos += System.nanoTime() - pendingSince;
+			reportPendingSince = pendingSince;
+		}
+		if (previous == State.CANCELLED) {
 			onCancel(param);
-		} else if (mState.get() != State.DONE) {
+		} else if (previous != State.DONE) {
 			after();
-			checkState(new State[]{State.RUNNING, State.PENDING}, State.DONE);
-			if (isHandlerAlive()) {
-				handler.post(new Runnable() {
-					@Override
-					public void run() {
-						listener.onDone(AsyncRunnableTask.this, param);
-					}
-				});
-			}
+			sendReport(EVENT_DONE, param);
 		}
 	}
 
 	@Override
-	public synchronized void onCancel(final V param) {
-		if (mState.get() != State.DONE) {
+	public void onCancel(V param) {
+		State previous = transition(CANCEL_REPORT_FROM, State.DONE, null);
+		if (previous == State.PENDING) {
+			pendingNanos += System.nanoTime() - pendingSince;
+			reportPendingSince = pendingSince;
+		}
+		if (previous != State.DONE) {
 			after();
-			checkState(new State[]{State.RUNNING, State.PENDING, State.CANCELLED}, State.DONE);
-			if (isHandlerAlive()) {
-				handler.post(new Runnable() {
-					@Override
-					public void run() {
-						listener.onCancel(AsyncRunnableTask.this, param);
-					}
-				});
-			}
+			sendReport(EVENT_CANCELLED, param);
 		}
 	}
 
@@ -99,7 +180,7 @@ public abstract class AsyncRunnableTask<V> implements AsyncRunnable<V>, Handler.
 	 * @return true if task can run, false otherwise
 	 */
 	@Override
-	public synchronized boolean canRun() {
+	public boolean canRun() {
 		State state = mState.get();
 		return state == State.IDLE || state == State.PENDING;
 	}
@@ -110,38 +191,36 @@ public abstract class AsyncRunnableTask<V> implements AsyncRunnable<V>, Handler.
 	}
 
 	@Override
-	public synchronized void clearWatchdog() {
+	public void clearWatchdog() {
 		if (DEBUG) {
-			Log.d(TAG, "clearWatchdog");
-		}
-		if (timeoutTask != null) {
-			timeoutTask.cancel();
-			timeoutTask = null;
+			ArtLog.d(TAG, "clearWatchdog");
 		}
-		if (timer != null) {
-			timer.cancel();
-			timer.purge();
-			timer = null;
+		Timeout<V> previous = timeoutTask.getAndSet(null);
+		if (previous != null) {
+			previous.cancel();
 		}
 	}
 
 	@Override
 	public void setWatchdog(long timeout, V param, int resId) {
-		clearWatchdog();
-		Log.d(TAG, "setWatchdog : " + timeout + "ms");
-		if (timer == null) {
-			timer = new Timer();
+		if (DEBUG) {
+			ArtLog.d(TAG, "setWatchdog : " + timeout + "ms");
+		}
+		Timeout<V> next = new Timeout<>(this, param, resId);
+		timer.schedule(next, timeout, TimeUnit.MILLISECONDS);
+		Timeout<V> previous = timeoutTask.getAndSet(next);
+		if (previous != null) {
+			previous.cancel();
 		}
-		timeoutTask = new Timeout<>(this, param, resId);
-		timer.schedule(timeoutTask, timeout);
 	}
 
-	//Do not synchronize cancel because it has to be able to cancel during actual execution.
 	@Override
 	public void cancel() {
 		// Don't set the state if it is done
-		synchronized (mutex) {
-			setState(new State[]{State.PENDING, State.RUNNING, State.IDLE}, State.CANCELLED);
+		transition(CANCEL_FROM, State.CANCELLED, null);
+		Retry<V> retry = retryTask.getAndSet(null);
+		if (retry != null) {
+			retry.cancel();
 		}
 		//FIXME check that super.cancel() was called in case or overriding
 	}
@@ -154,17 +233,51 @@ public abstract class AsyncRunnableTask<V> implements AsyncRunnable<V>, Handler.
 	/* ********** Runnable ********** */
 
 	@Override
-	final synchronized public void run() {
-		// We are synchronizing this code with cancel because we have several mState.get() calls
-		// in a row and we do not want want mState become CANCELLED between them.
-		synchronized (mutex) {
-			if (mState.get() == State.CANCELLED) {
-				//do not execute if it was cancelled
-				return;
+	final public void run() {
+		Thread current = Thread.currentThread();
+		// Set before the transition, so that reset() of a task done meanwhile waits for this run
+		runner = current;
+		int gen = generation;
+		try {
+			doRun(gen);
+		} finally {
+			synchronized (runnerLock) {
+				if (generation == gen && runner == current) {
+					runner = null;
+					runnerLock.notifyAll();
+				}
 			}
-			// Do this line before check state
-			firstExecution = mState.get() != State.PENDING;
-			checkState(new State[]{State.IDLE, State.PENDING}, State.RUNNING);
+		}
+	}
+
+	private void doRun(int gen) {
+		State previous = transition(RUN_FROM, State.RUNNING, State.CANCELLED);
+		if (previous == State.CANCELLED) {
+			//do not execute if it was cancelled
+			return;
+		} else if (previous != State.IDLE && previous != State.PENDING) {
+			throw new RuntimeException("Wrong mState, " + previous);
+		}
+		boolean retry = retryPosted;
+		retryPosted = false;
+		// A retry starts over, as the first execution did
+		firstExecution = previous == State.IDLE || retry;
+		if (retry) {
+			// Timeout of the previous attempt
+			timedOut = false;
+		}
+		// Requests made from now on need a new execution
+		wakeUp.set(WAKE_NONE);
+		long now = System.nanoTime();
+		if (previous == State.IDLE) {
+			firstRunAt = now;
+		} else {
+			pendingNanos += now - pendingSince;
+		}
+
+		ExecutionObserver o = observer;
+		if (o != null) {
+			o.onTaskRunStarted(this);
 		}
 
 		if (firstExecution) {
@@ -172,26 +285,228 @@ public abstract class AsyncRunnableTask<V> implements AsyncRunnable<V>, Handler.
 		}
 		this.execute();
 
-		if (mState.get() != State.DONE) {
-			mState.set(State.PENDING);
+		if (o != null) {
+			o.onTaskRunEnded(this);
+		}
+		if (generation != gen) {
+			// Reset by a report delivered inline : the task already belongs to its next execution
+			return;
 		}
+		// Task may have been done or cancelled during execution
+		pendingSince = System.nanoTime();
+		mState.compareAndSet(State.RUNNING, State.PENDING);
+		// Wake-up requested during execution
+		postWakeUp();
 	}
 
 	/* ********** Handler.Callback ********** */
 
-	@Override
+	/**
+	 * Receive the messages sent through {@link #getHandler()}.
+	 * <p>
+	 * Kept for subclasses written when this class implemented Handler.Callback. It is not one
+	 * anymore, so that tasks can be loaded without Android.
+	 *
+	 * @param msg Message sent through {@link #getHandler()}
+	 * @return true if message has been handled
+	 * @deprecated use {@link Dispatcher#send(Dispatcher.Target, int)} on {@link #getDispatcher()}
+	 */
+	@Deprecated
 	public boolean handleMessage(Message msg) {
 		return false;
 	}
 
 	/* ********** methods ********** */
 
+	/**
+	 * Set the timer used by the watchdog. {@link HashedWheelTimer#getDefault()} is used if
+	 * none is set.
+	 *
+	 * @param timer Timer shared between tasks
+	 */
+	public void setWatchdogTimer(HashedWheelTimer timer) {
+		this.timer = timer;
+	}
+
+	/**
+	 * Execute the task again when it calls onDone() with a transient failure.
+	 * <p>
+	 * Each retry is a new attempt : {@link #isFirstExecution()} is true again, so that
+	 * execute() can arm a new watchdog, see {@link #getRetryCount()}.
+	 *
+	 * @param policy Retry policy, null to report all results
+	 */
+	public void setRetryPolicy(RetryPolicy<V> policy) {
+		retryPolicy = policy;
+	}
+
+	/**
+	 * @return Number of retries done so far, 0 during first execution
+	 */
+	protected int getRetryCount() {
+		return retries;
+	}
+
+	/**
+	 * @return true if another thread is still inside {@link #run()}, a reset would wait for it
+	 */
+	boolean isRunElsewhere() {
+		Thread r = runner;
+		return r != null && r != Thread.currentThread();
+	}
+
+	/**
+	 * Make a done or cancelled task executable again, as if it had just been built.
+	 * <p>
+	 * To be called once the task has been reported, for instance from
+	 * {@link AsyncExecutorListener#afterTask(AsyncRunnable, Object)}. Configuration (watchdog
+	 * timer, retry policy) is kept, subclasses clear their own state in {@link #onReset()}.
+	 * <p>
+	 * The task may report before {@link #run()} has returned. Called from another thread, reset
+	 * waits for run() to return. Called by the thread running the task, which happens when the
+	 * report is delivered inline (batch of the executor, {@link Dispatchers#IMMEDIATE}), run()
+	 * returns without touching the task anymore : {@link #execute()} shall not use the task
+	 * after onDone() or onCancel() either, it may already be executed again.
+	 *
+	 * @throws IllegalStateException if task is executing or waiting, or if the thread is
+	 *                               interrupted while waiting for run() to return
+	 */
+	public void reset() {
+		State state = mState.get();
+		if (state == State.IDLE) {
+			return;
+		} else if (state != State.DONE && state != State.CANCELLED) {
+			throw new IllegalStateException("Cannot reset task in state " + state);
+		}
+		synchronized (runnerLock) {
+			if (runner == Thread.currentThread()) {
+				generation++;
+				runner = null;
+			} else {
+				while (runner != null) {
+					try {
+						runnerLock.wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new IllegalStateException("Interrupted while waiting for run() of "
+						                                + getName());
+					}
+				}
+			}
+		}
+		clearWatchdog();
+		Retry<V> retry = retryTask.getAndSet(null);
+		if (retry != null) {
+			retry.cancel();
+		}
+		firstExecution = true;
+		legacyHandler = null;
+		retries = 0;
+		retryPosted = false;
+		wakeUp.set(WAKE_NONE);
+		observer = null;
+		wakeUpGate = null;
+		queuedAt = 0;
+		startedAt = 0;
+		firstRunAt = 0;
+		pendingNanos = 0;
+		timedOut = false;
+		pendingSince = 0;
+		reportPendingSince = 0;
+		onReset();
+		if (!mState.compareAndSet(state, State.IDLE)) {
+			throw new IllegalStateException("Task state changed during reset");
+		}
+	}
+
+	/**
+	 * Called by {@link #reset()}, override to clear the state of the task
+	 */
+	protected void onReset() {
+	}
+
+	/**
+	 * Execute again this PENDING task on its dispatcher, as soon as possible.
+	 * <p>
+	 * Can be called from any thread, typically by the callback of the source the task is waiting
+	 * for. If task is executing, it is executed again when it returns. Requests made before the
+	 * next execution starts are coalesced into one execution. While the executor of the task is
+	 * paused, the execution is deferred until it is resumed, as
+	 * {@link AsyncExecutor#executeCurrent()} is refused.
+	 *
+	 * @return true if a new execution is requested, false if one is already requested or if task
+	 * is over
+	 */
+	public boolean wakeUp() {
+		State state = mState.get();
+		if (state != State.RUNNING && state != State.PENDING) {
+			return false;
+		} else if (!wakeUp.compareAndSet(WAKE_NONE, WAKE_REQUESTED)) {
+			return false;
+		}
+		postWakeUp();
+		return true;
+	}
+
+	/**
+	 * Call {@link #wakeUp()} once fd becomes readable. The file descriptor is watched by the
+	 * looper of the task, no thread is blocked on it.
+	 * <p>
+	 * Only available from API 23, when the task is executed by a {@link HandlerDispatcher}.
+	 *
+	 * @param fd File descriptor the task is waiting for
+	 * @return false if fd cannot be watched, caller shall use another wake-up source
+	 */
+	@TargetApi(23)
+	protected boolean wakeUpWhenReadable(FileDescriptor fd) {
+		Dispatcher d = dispatcher;
+		if (Build.VERSION.SDK_INT < 23 || !(d instanceof HandlerDispatcher)) {
+			return false;
+		}
+		((HandlerDispatcher) d).sendWhenReadable(fd, waker, EVENT_WAKE_UP);
+		return true;
+	}
+
+	/**
+	 * Set by the executor that runs the task, replacing the one of a previous executor
+	 *
+	 * @param gate Pause state of the executor, null if wake-ups are never deferred
+	 */
+	void setWakeUpGate(WakeUpGate gate) {
+		wakeUpGate = gate;
+	}
+
+	/**
+	 * Called by the executor when it is resumed, to post a wake-up deferred while it was paused
+	 */
+	void postDeferredWakeUp() {
+		postWakeUp();
+	}
+
+	/**
+	 * @return Dispatcher on which completion is reported, null before first execution
+	 */
+	protected Dispatcher getDispatcher() {
+		return dispatcher;
+	}
+
+	/**
+	 * @return Handler of the looper that executes this task, delivering its messages to
+	 * {@link #handleMessage(Message)}. null if task is not executed by a looper.
+	 * @deprecated use {@link #getDispatcher()}
+	 */
+	@Deprecated
 	protected Handler getHandler() {
-		return handler;
+		Dispatcher d = dispatcher;
+		if (legacyHandler == null && d instanceof HandlerDispatcher) {
+			legacyHandler = ((HandlerDispatcher) d).newTaskHandler(this);
+		}
+		return legacyHandler;
 	}
 
 	/**
-	 * Tell if this is the first execution of the task
+	 * Tell if this is the first execution of the task, or of a retry. Executions after a
+	 * wake-up or {@link AsyncExecutor#executeCurrent()} are not.
 	 *
 	 * @return true is this is the first execution
 	 */
@@ -206,61 +521,215 @@ public abstract class AsyncRunnableTask<V> implements AsyncRunnable<V>, Handler.
 		clearWatchdog();
 	}
 
+	/* ********** Observation, for ExecutionObserver ********** */
+
+	/**
+	 * Set by the executor that runs the task, replacing the one of a previous executor
+	 *
+	 * @param observer Observer of the executor, null if it has none
+	 */
+	void setObserver(ExecutionObserver observer) {
+		this.observer = observer;
+	}
+
+	long getQueuedAt() {
+		return queuedAt;
+	}
+
+	void setQueuedAt(long queuedAt) {
+		this.queuedAt = queuedAt;
+	}
+
+	long getStartedAt() {
+		return startedAt;
+	}
+
+	void setStartedAt(long startedAt) {
+		this.startedAt = startedAt;
+	}
+
+	/**
+	 * @return Start of first execution, 0 if task has not run
+	 */
+	long getFirstRunAt() {
+		return firstRunAt;
+	}
+
+	/**
+	 * @return Time spent PENDING so far, in ns
+	 */
+	long getPendingNanos() {
+		return pendingNanos;
+	}
+
+	/**
+	 * @return Start of the current pending period, meaningful when task is PENDING
+	 */
+	long getPendingSince() {
+		return pendingSince;
+	}
+
+	/**
+	 * @return Start of the pending period that ended with the report, 0 if task was not pending
+	 */
+	long getReportPendingSince() {
+		return reportPendingSince;
+	}
+
+	/**
+	 * @return true if task has been reported by its watchdog
+	 */
+	boolean isTimedOut() {
+		return timedOut;
+	}
+
 	/**
 	 * Executed bu run()
 	 */
 	private void before() {
-		handler = new Handler(Looper.myLooper(), this);
+		dispatcher = Dispatchers.myDispatcher();
 	}
 
 	/**
-	 * Set a state according to previous allowed state.
-	 * <p>
-	 * Throw RuntimeException if previous state was not correct.
-	 *
-	 * @param currents Previous allowed states
-	 * @param nev      New state
+	 * Post requested execution if task is waiting. A pending retry has precedence. While the
+	 * executor is paused, the request is kept for {@link #postDeferredWakeUp()}.
 	 */
-	//Do not synchronize this method
-	private void checkState(State[] currents, State nev) {
-		boolean ok = false;
-		for (State current : currents) {
-			if (current == mState.get()) {
-				ok = true;
+	private void postWakeUp() {
+		WakeUpGate gate = wakeUpGate;
+		if (gate != null && gate.isWakeUpDeferred()) {
+			return;
+		}
+		if (mState.get() == State.PENDING && retryTask.get() == null
+			&& wakeUp.compareAndSet(WAKE_REQUESTED, WAKE_POSTED)) {
+			if (!dispatcher.post(this)) {
+				wakeUp.set(WAKE_NONE);
 			}
 		}
+	}
 
-		if (!ok) {
-			throw new RuntimeException("Wrong mState, " + mState);
-		} else {
-			mState.set(nev);
+	/**
+	 * Schedule a new execution if result is a transient failure. Task stays PENDING meanwhile.
+	 *
+	 * @return true if a retry has been scheduled, result shall not be reported
+	 */
+	private boolean scheduleRetry(V param) {
+		RetryPolicy<V> policy = retryPolicy;
+		State state = mState.get();
+		if (policy == null || (state != State.RUNNING && state != State.PENDING)
+			|| !policy.shouldRetry(retries, param)) {
+			return false;
+		}
+		// Watchdog of this attempt
+		clearWatchdog();
+		if (mState.compareAndSet(State.RUNNING, State.PENDING)) {
+			pendingSince = System.nanoTime();
 		}
+		long delay = policy.getDelayMs(retries);
+		retries++;
+		if (DEBUG) {
+			ArtLog.d(TAG, "Retry " + retries + " in " + delay + "ms");
+		}
+		Retry<V> retry = new Retry<>(this, param);
+		retryTask.set(retry);
+		timer.schedule(retry, delay, TimeUnit.MILLISECONDS);
+		return true;
 	}
 
 	/**
-	 * Set the new state only if previous was in the list of current states
+	 * Report to listener on the dispatcher. State transition guarantees that only one report
+	 * is sent, and sending gives param to the dispatcher thread.
+	 * <p>
+	 * In a batch of the executor, report is delivered right away : the task has been run by
+	 * the dispatcher thread and is done synchronously.
+	 */
+	private void sendReport(int what, V param) {
+		if (dispatcher.isAlive()) {
+			report = param;
+			if (Dispatchers.isInline()) {
+				// Done synchronously in a batch, already on the dispatcher thread
+				reporter.onEvent(what);
+			} else {
+				dispatcher.send(reporter, what);
+			}
+		}
+	}
+
+	/**
+	 * Atomically move to a new state if current state is one of the allowed previous states.
 	 *
-	 * @param currents Currents states
-	 * @param nev      new state
+	 * @param from     Allowed previous states
+	 * @param to       New state
+	 * @param stopOn   State on which transition is abandoned without error, can be null
+	 * @return State before transition. If it is not one of from, transition did not happen.
+	 * @throws RuntimeException if current state is neither allowed nor stopOn, nor DONE
 	 */
-	@SuppressWarnings("SameParameterValue")
-	private void setState(State[] currents, State nev) {
-		boolean ok = false;
-		for (State current : currents) {
-			if (current == mState.get()) {
-				ok = true;
+	private State transition(State[] from, State to, State stopOn) {
+		while (true) {
+			State current = mState.get();
+			if (current == stopOn || (current == State.DONE && to != State.RUNNING)) {
+				return current;
+			} else if (!contains(from, current)) {
+				if (to == State.CANCELLED) {
+					// Too late to cancel
+					return current;
+				}
+				throw new RuntimeException("Wrong mState, " + current);
+			} else if (mState.compareAndSet(current, to)) {
+				return current;
 			}
 		}
-		if (ok) {
-			mState.set(nev);
+	}
+
+	private static boolean contains(State[] states, State state) {
+		for (State s : states) {
+			if (s == state) {
+				return true;
+			}
 		}
+		return false;
+	}
+
+	/**
+	 * Post the task on its dispatcher when backoff delay has elapsed
+	 */
+	/**
+	 * Tells a task whether its executor accepts wake-ups right now
+	 */
+	interface WakeUpGate {
+
+		/**
+		 * @return true while the executor is paused
+		 */
+		boolean isWakeUpDeferred();
 	}
 
-	private boolean isHandlerAlive() {
-		return handler.getLooper().getThread().isAlive();
+	private static class Retry<V> extends HashedWheelTimer.TimerTask {
+		private final WeakReference<AsyncRunnableTask<V>> ref;
+		/* Result of the failed attempt, reported if the retry cannot be executed */
+		private final V param;
+
+		Retry(AsyncRunnableTask<V> t, V param) {
+			ref = new WeakReference<>(t);
+			this.param = param;
+		}
+
+		@Override
+		public void run() {
+			AsyncRunnableTask<V> t = ref.get();
+			if (t == null || !t.retryTask.compareAndSet(this, null)) {
+				return;
+			}
+			t.retryPosted = true;
+			if (!t.dispatcher.isAlive() || !t.dispatcher.post(t)) {
+				t.retryPosted = false;
+				// Task would stay PENDING forever
+				ArtLog.w(TAG, "Cannot execute retry " + t.retries + " of " + t.getName());
+				t.onCancel(param);
+			}
+		}
 	}
 
-	static class Timeout<V> extends TimerTask implements ITimeout<V> {
+	static class Timeout<V> extends HashedWheelTimer.TimerTask implements ITimeout<V> {
 
 		private final WeakReference<AsyncRunnableTask<V>> ref;
 		private final V param;
@@ -284,6 +753,11 @@ public abstract class AsyncRunnableTask<V> implements AsyncRunnable<V>, Handler.
 		public void run() {
 			AsyncRunnableTask<V> t = ref.get();
 			if (t != null) {
+				// Set here, onTimeout() may be overridden. Futures fail instead of being done.
+				State state = t.getState();
+				if (state == State.RUNNING || state == State.PENDING) {
+					t.timedOut = true;
+				}
 				t.onTimeout(this);
 			}
 		}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fr.coppernic.framework.art;
+
+/**
+ * Forwards the events of an executor to several observers, for instance an
+ * {@link ExecutorMetrics} and a {@link TraceRecorder} at the same time.
+ * <p>
+ * Observers are called in the order given, an executor holds a single observer : set the
+ * composite with setObserver() of the executor.
+ */
+public class CompositeObserver implements ExecutionObserver {
+
+	private final ExecutionObserver[] observers;
+
+	/**
+	 * @param observers Observers receiving all events, in this order
+	 */
+	public CompositeObserver(ExecutionObserver... observers) {
+		for (ExecutionObserver o : observers) {
+			if (o == null) {
+				throw new IllegalArgumentException("Observer shall not be null");
+			}
+		}
+		this.observers = observers.clone();
+	}
+
+	@Override
+	public void onTaskQueued(AsyncRunnable<?> task) {
+		for (ExecutionObserver o : observers) {
+			o.onTaskQueued(task);
+		}
+	}
+
+	@Override
+	public void onTaskStarted(AsyncRunnable<?> task) {
+		for (ExecutionObserver o : observers) {
+			o.onTaskStarted(task);
+		}
+	}
+
+	@Override
+	public void onTaskFinished(AsyncRunnable<?> task, boolean cancelled) {
+		for (ExecutionObserver o : observers) {
+			o.onTaskFinished(task, cancelled);
+		}
+	}
+
+	@Override
+	public void onTaskRunStarted(AsyncRunnable<?> task) {
+		for (ExecutionObserver o : observers) {
+			o.onTaskRunStarted(task);
+		}
+	}
+
+	@Override
+	public void onTaskRunEnded(AsyncRunnable<?> task) {
+		for (ExecutionObserver o : observers) {
+			o.onTaskRunEnded(task);
+		}
+	}
+
+	@Override
+	public void onPaused() {
+		for (ExecutionObserver o : observers) {
+			o.onPaused();
+		}
+	}
+
+	@Override
+	public void onResumed() {
+		for (ExecutionObserver o : observers) {
+			o.onResumed();
+		}
+	}
+}
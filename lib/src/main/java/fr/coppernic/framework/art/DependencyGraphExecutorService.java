@@ -0,0 +1,331 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fr.coppernic.framework.art;
+
+import android.os.HandlerThread;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import fr.coppernic.framework.art.AsyncRunnable.State;
+
+/**
+ * Executor service scheduling tasks according to their dependencies.
+ * <p>
+ * A task is executed as soon as all its prerequisites are done, on the first idle lane. Tasks
+ * without dependencies between each other are executed concurrently. Tasks ready at the same
+ * time are executed in the order they have been added.
+ * <p>
+ * When a task calls onCancel, only the tasks depending on it (directly or not) are cancelled.
+ * Other branches of the graph go on. {@link AsyncExecutorListener#onCancelled()} is never
+ * called by a task, only by {@link #dispose()}.
+ * <p>
+ * At the end of the suite, the critical path (longest chain of dependent tasks, in execution
+ * time) is available with {@link #getCriticalPath()} and {@link #getCriticalPathLength()}.
+ */
+public class DependencyGraphExecutorService<V, T extends AsyncRunnable<V>>
+	extends ParallelAsyncExecutorService<V, T> {
+
+	private static final String TAG = "DependencyGraphExecutor";
+
+	private final Map<T, Node<T>> nodes = new IdentityHashMap<>();
+	/* Nodes of added tasks, in add order */
+	private final List<Node<T>> added = new ArrayList<>();
+	private Node<T> criticalEnd = null;
+	private boolean started = false;
+
+	/**
+	 * @param handlerThreads One handler thread per lane. Threads are started if needed.
+	 */
+	public DependencyGraphExecutorService(HandlerThread... handlerThreads) {
+		super(handlerThreads);
+	}
+
+	/**
+	 * @param dispatchers One dispatcher per lane
+	 */
+	public DependencyGraphExecutorService(Dispatcher... dispatchers) {
+		super(dispatchers);
+	}
+
+	/**
+	 * @param dispatcher Pooled dispatcher shared by all lanes
+	 * @param laneCount  Max number of tasks executing at the same time
+	 */
+	public DependencyGraphExecutorService(Dispatcher dispatcher, int laneCount) {
+		super(dispatcher, laneCount);
+	}
+
+	/* ------------------- AsyncExecutor ------------------- */
+
+	/**
+	 * Add a task to the graph. It will be executed when all its prerequisites are done.
+	 *
+	 * @param command task to be executed
+	 */
+	@Override
+	public synchronized void add(T command) {
+		add(command, PRIORITY_NORMAL);
+	}
+
+	/**
+	 * Add a task to the graph. When it is ready, it is executed before ready tasks of lower
+	 * priority.
+	 *
+	 * @param command  task to be executed
+	 * @param priority from {@link #PRIORITY_LOW} to {@link #PRIORITY_URGENT}
+	 */
+	@Override
+	public synchronized void add(T command, int priority) {
+		if (priority < PRIORITY_LOW || priority > PRIORITY_URGENT) {
+			throw new IllegalArgumentException("Wrong priority : " + priority);
+		}
+		Node<T> node = nodeOf(command);
+		if (!node.added) {
+			node.added = true;
+			node.priority = priority;
+			added.add(node);
+			releaseIfReady(node);
+		}
+	}
+
+	@Override
+	public synchronized void addAll(Collection<T> c) {
+		for (T command : c) {
+			add(command);
+		}
+	}
+
+	@Override
+	public synchronized RetCode execute() {
+		if (getState() != State.IDLE) {
+			return RetCode.WRONG_STATE;
+		}
+		releaseRoots();
+		return super.execute();
+	}
+
+	@Override
+	public synchronized RetCode executeAndPause() {
+		if (getState() != State.IDLE) {
+			return RetCode.WRONG_STATE;
+		}
+		releaseRoots();
+		return super.executeAndPause();
+	}
+
+	/**
+	 * Declare that a task cannot be executed before another one is done.
+	 * <p>
+	 * Both tasks shall be added to the executor with {@link #add(AsyncRunnable)}.
+	 *
+	 * @param task         Dependent task
+	 * @param prerequisite Task that has to be done before
+	 * @throws IllegalArgumentException if the dependency makes a cycle
+	 * @throws IllegalStateException    if task is already executing or done
+	 */
+	public synchronized void addDependency(T task, T prerequisite) {
+		Node<T> node = nodeOf(task);
+		Node<T> pre = nodeOf(prerequisite);
+		if (node.released) {
+			throw new IllegalStateException(task + " has already been released");
+		} else if (node == pre || dependsOn(pre, node)) {
+			throw new IllegalArgumentException(task + " -> " + prerequisite + " makes a cycle");
+		}
+		node.prerequisites.add(pre);
+		pre.dependents.add(node);
+		if (!pre.done) {
+			node.remaining++;
+		}
+	}
+
+	/**
+	 * Declare that a task cannot be executed before several other ones are done.
+	 *
+	 * @param task          Dependent task
+	 * @param prerequisites Tasks that have to be done before
+	 */
+	public synchronized void addDependencies(T task, Collection<T> prerequisites) {
+		for (T prerequisite : prerequisites) {
+			addDependency(task, prerequisite);
+		}
+	}
+
+	/**
+	 * @return Execution time in ms of the longest chain of dependent tasks done so far.
+	 */
+	public synchronized long getCriticalPathLength() {
+		return criticalEnd == null ? 0 : criticalEnd.pathNanos / 1000000;
+	}
+
+	/**
+	 * @return Longest chain of dependent tasks done so far, from first to last one.
+	 */
+	public synchronized List<T> getCriticalPath() {
+		LinkedList<T> path = new LinkedList<>();
+		for (Node<T> node = criticalEnd; node != null; node = node.criticalPrevious) {
+			path.addFirst(node.task);
+		}
+		return Collections.unmodifiableList(path);
+	}
+
+	/* ------------------- Hooks ------------------- */
+
+	@Override
+	protected void onTaskDispatched(T task) {
+		nodeOf(task).startNanos = System.nanoTime();
+	}
+
+	@Override
+	protected void onTaskDone(T task, V param) {
+		Node<T> node = nodeOf(task);
+		node.done = true;
+		updateCriticalPath(node);
+		for (Node<T> dependent : node.dependents) {
+			dependent.remaining--;
+			releaseIfReady(dependent);
+		}
+	}
+
+	@Override
+	protected boolean shouldCancelSuite(T task, V param) {
+		cancelDependents(nodeOf(task));
+		return false;
+	}
+
+	@Override
+	protected void onSuiteDone() {
+		for (Node<T> node : nodes.values()) {
+			if (!node.released && !node.cancelled) {
+				ArtLog.w(TAG, node.task + " has never been executed, a prerequisite is missing");
+				node.cancelled = true;
+				node.task.cancel();
+			}
+		}
+		ArtLog.i(TAG, "Critical path : " + getCriticalPathLength() + "ms, "
+			+ getCriticalPath().size() + " tasks");
+	}
+
+	/* ------------------- Internals ------------------- */
+
+	private Node<T> nodeOf(T task) {
+		Node<T> node = nodes.get(task);
+		if (node == null) {
+			node = new Node<>(task);
+			nodes.put(task, node);
+		}
+		return node;
+	}
+
+	private void releaseRoots() {
+		started = true;
+		for (Node<T> node : added) {
+			releaseIfReady(node);
+		}
+	}
+
+	/**
+	 * Give the task to the lanes if all its prerequisites are done. Before execution, roots
+	 * are kept until {@link #execute()} is called.
+	 */
+	private void releaseIfReady(Node<T> node) {
+		if (started && node.added && !node.released && !node.cancelled && node.remaining == 0) {
+			node.released = true;
+			super.add(node.task, node.priority);
+		}
+	}
+
+	private void cancelDependents(Node<T> node) {
+		node.cancelled = true;
+		for (Node<T> dependent : node.dependents) {
+			if (!dependent.cancelled) {
+				ArtLog.i(TAG, "Cancelling " + dependent.task + " : prerequisite " + node.task
+					+ " has been cancelled");
+				dependent.task.cancel();
+				cancelDependents(dependent);
+			}
+		}
+	}
+
+	private void updateCriticalPath(Node<T> node) {
+		long duration = System.nanoTime() - node.startNanos;
+		Node<T> previous = null;
+		for (Node<T> pre : node.prerequisites) {
+			if (previous == null || pre.pathNanos > previous.pathNanos) {
+				previous = pre;
+			}
+		}
+		node.criticalPrevious = previous;
+		node.pathNanos = duration + (previous == null ? 0 : previous.pathNanos);
+		if (criticalEnd == null || node.pathNanos > criticalEnd.pathNanos) {
+			criticalEnd = node;
+		}
+	}
+
+	/**
+	 * Depth-first search of prerequisite among the prerequisites of node, direct or not. Each
+	 * node is visited once, shared prerequisites of a diamond are not walked again.
+	 */
+	private boolean dependsOn(Node<T> node, Node<T> prerequisite) {
+		Set<Node<T>> visited = Collections.newSetFromMap(new IdentityHashMap<Node<T>, Boolean>());
+		Deque<Node<T>> toVisit = new ArrayDeque<>();
+		toVisit.push(node);
+		while (!toVisit.isEmpty()) {
+			for (Node<T> pre : toVisit.pop().prerequisites) {
+				if (pre == prerequisite) {
+					return true;
+				} else if (visited.add(pre)) {
+					toVisit.push(pre);
+				}
+			}
+		}
+		return false;
+	}
+
+	private static class Node<T> {
+		final T task;
+		final List<Node<T>> prerequisites = new ArrayList<>();
+		final List<Node<T>> dependents = new ArrayList<>();
+		int remaining = 0;
+		int priority = PRIORITY_NORMAL;
+		boolean added = false;
+		boolean released = false;
+		boolean done = false;
+		boolean cancelled = false;
+		long startNanos = 0;
+		long pathNanos = 0;
+		Node<T> criticalPrevious = null;
+
+		Node(T task) {
+			this.task = task;
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fr.coppernic.framework.art;
+
+/**
+ * Execution backend of executors and tasks.
+ * <p>
+ * A dispatcher executes posted runnables on its own thread(s). Implementations exist for
+ * Android loopers ({@link HandlerDispatcher}) and for plain java.util.concurrent executors
+ * ({@link ExecutorDispatcher}).
+ */
+public interface Dispatcher {
+
+	/**
+	 * Execute a runnable on a thread of this dispatcher
+	 *
+	 * @param r Runnable to execute
+	 * @return true if runnable has been accepted, false if dispatcher is not alive anymore
+	 */
+	boolean post(Runnable r);
+
+	/**
+	 * Deliver an event to a target on a thread of this dispatcher.
+	 * <p>
+	 * Unlike {@link #post(Runnable)}, the caller does not allocate a runnable : events are carried
+	 * by recycled messages, so this is the path to use for frequent signals. Whether delivery
+	 * allocates depends on the backend : {@link HandlerDispatcher} does not allocate at all, while
+	 * {@link ExecutorDispatcher} allocates a carrier when its pool is empty and its executor
+	 * usually allocates a queue node per event.
+	 *
+	 * @param target Receiver of the event
+	 * @param what   Event code, meaning is up to the target
+	 * @return true if event has been accepted, false if dispatcher is not alive anymore
+	 */
+	boolean send(Target target, int what);
+
+	/**
+	 * @return true if this dispatcher still executes runnables
+	 */
+	boolean isAlive();
+
+	/**
+	 * Stop this dispatcher. Runnables that are not executed yet are dropped.
+	 */
+	void quit();
+
+	/**
+	 * Receiver of events sent with {@link Dispatcher#send(Target, int)}
+	 */
+	interface Target {
+
+		/**
+		 * Called on a thread of the dispatcher
+		 *
+		 * @param what Event code
+		 */
+		void onEvent(int what);
+	}
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fr.coppernic.framework.art;
+
+import android.os.HandlerThread;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide pool of single-thread dispatchers, leased by executors instead of creating a
+ * {@link HandlerThread} each.
+ * <p>
+ * A lease is bound to one thread of the pool, so that an executor keeps executing its tasks one
+ * after the other. New threads are started until the thread budget is reached, then leases
+ * share the least loaded thread. {@link Dispatcher#quit()} on a lease only releases it : the
+ * thread is quit when it has had no lease for the keep-alive delay.
+ * <p>
+ * Runnables posted to a lease run with the lease as {@link Dispatchers#myDispatcher()}, so that
+ * tasks post their retries, wake-ups and reports to the lease : once it is released, they are
+ * dropped instead of being run on a thread the executor no longer owns.
+ * <p>
+ * Threads are Android loopers when available, plain java threads otherwise.
+ */
+public class DispatcherPool {
+
+	private static final String TAG = "DispatcherPool";
+	private static final long DEFAULT_KEEP_ALIVE_S = 30;
+
+	private final String name;
+	private final int maxThreads;
+	private final long keepAliveMs;
+	private final List<Worker> workers = new ArrayList<>();
+	private int created = 0;
+
+	/**
+	 * @param name       Prefix of thread names
+	 * @param maxThreads Max number of threads of the pool
+	 * @param keepAlive  Delay before an unused thread is quit
+	 * @param unit       Unit of keepAlive
+	 */
+	public DispatcherPool(String name, int maxThreads, long keepAlive, TimeUnit unit) {
+		if (maxThreads <= 0) {
+			throw new IllegalArgumentException("maxThreads must be greater than 0");
+		}
+		this.name = name;
+		this.maxThreads = maxThreads;
+		keepAliveMs = unit.toMillis(keepAlive);
+	}
+
+	/**
+	 * Pool shared by the whole process, with one thread per core and a keep-alive of 30s.
+	 *
+	 * @return Default pool
+	 */
+	public static DispatcherPool getDefault() {
+		return DefaultHolder.INSTANCE;
+	}
+
+	/**
+	 * Lease a dispatcher. Quit it to give it back, executors give back their lease themselves
+	 * once done or disposed.
+	 *
+	 * @return Dispatcher bound to one thread of the pool
+	 */
+	public synchronized Dispatcher lease() {
+		Worker worker = null;
+		for (Worker w : workers) {
+			if (worker == null || w.leases < worker.leases) {
+				worker = w;
+			}
+		}
+		if (worker == null || (worker.leases > 0 && workers.size() < maxThreads)) {
+			worker = new Worker(newDispatcher(name + "-" + ++created));
+			workers.add(worker);
+		}
+		worker.leases++;
+		if (worker.idleTask != null) {
+			worker.idleTask.cancel();
+			worker.idleTask = null;
+		}
+		return new Lease(worker);
+	}
+
+	/**
+	 * @return Number of threads currently started
+	 */
+	public synchronized int getThreadCount() {
+		return workers.size();
+	}
+
+	/**
+	 * Give a leased dispatcher back to its pool. Other dispatchers may be shared with the
+	 * caller of the executor, they are left running.
+	 *
+	 * @param dispatcher Dispatcher of an executor that is over
+	 */
+	static void releaseLease(Dispatcher dispatcher) {
+		if (dispatcher instanceof Lease) {
+			dispatcher.quit();
+		}
+	}
+
+	/* ------------------- Internals ------------------- */
+
+	private static Dispatcher newDispatcher(String name) {
+		if (Platform.ANDROID) {
+			return new HandlerDispatcher(new HandlerThread(name));
+		}
+		return ExecutorDispatcher.newSingleThread(name);
+	}
+
+	private synchronized void release(final Worker worker) {
+		if (--worker.leases > 0) {
+			return;
+		}
+		worker.idleTask = new HashedWheelTimer.TimerTask() {
+			@Override
+			public void run() {
+				retire(worker, this);
+			}
+		};
+		HashedWheelTimer.getDefault().schedule(worker.idleTask, keepAliveMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Quit a thread that has had no lease for the keep-alive delay
+	 */
+	private synchronized void retire(Worker worker, HashedWheelTimer.TimerTask task) {
+		if (worker.idleTask != task || worker.leases > 0) {
+			// Leased again in the meantime
+			return;
+		}
+		ArtLog.d(TAG, "Quitting idle thread");
+		workers.remove(worker);
+		worker.dispatcher.quit();
+	}
+
+	private static final class DefaultHolder {
+		static final DispatcherPool INSTANCE =
+			new DispatcherPool(TAG, Runtime.getRuntime().availableProcessors(),
+			                   DEFAULT_KEEP_ALIVE_S, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Thread of the pool
+	 */
+	private static final class Worker {
+		final Dispatcher dispatcher;
+		int leases = 0;
+		HashedWheelTimer.TimerTask idleTask = null;
+
+		Worker(Dispatcher dispatcher) {
+			this.dispatcher = dispatcher;
+		}
+	}
+
+	/**
+	 * Dispatcher given to an executor. Quitting it releases the thread instead of stopping it.
+	 * Runnables already posted are still executed.
+	 */
+	private final class Lease implements Dispatcher {
+		private final Worker worker;
+		private volatile boolean released = false;
+
+		Lease(Worker worker) {
+			this.worker = worker;
+		}
+
+		@Override
+		public boolean post(final Runnable r) {
+			return !released && worker.dispatcher.post(new Runnable() {
+				@Override
+				public void run() {
+					Dispatcher previous = Dispatchers.replaceMyDispatcher(Lease.this);
+					try {
+						r.run();
+					} finally {
+						Dispatchers.replaceMyDispatcher(previous);
+					}
+				}
+			});
+		}
+
+		@Override
+		public boolean send(Target target, int what) {
+			return !released && worker.dispatcher.send(target, what);
+		}
+
+		@Override
+		public boolean isAlive() {
+			return !released && worker.dispatcher.isAlive();
+		}
+
+		@Override
+		public void quit() {
+			synchronized (this) {
+				if (released) {
+					return;
+				}
+				released = true;
+			}
+			release(worker);
+		}
+	}
+}
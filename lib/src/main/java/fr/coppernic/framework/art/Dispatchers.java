@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fr.coppernic.framework.art;
+
+/**
+ * Access to the {@link Dispatcher} of the calling thread
+ */
+public final class Dispatchers {
+
+	/**
+	 * Dispatcher executing runnables immediately in the calling thread
+	 */
+	public static final Dispatcher IMMEDIATE = new Dispatcher() {
+		@Override
+		public boolean post(Runnable r) {
+			r.run();
+			return true;
+		}
+
+		@Override
+		public boolean send(Target target, int what) {
+			target.onEvent(what);
+			return true;
+		}
+
+		@Override
+		public boolean isAlive() {
+			return true;
+		}
+
+		@Override
+		public void quit() {
+		}
+	};
+
+	private static final ThreadLocal<Dispatcher> CURRENT = new ThreadLocal<>();
+	private static final ThreadLocal<Boolean> INLINE = new ThreadLocal<>();
+
+	private Dispatchers() {
+	}
+
+	/**
+	 * Give the dispatcher of calling thread.
+	 * <ul>
+	 * <li>Dispatcher owning the thread if the thread has been created by a dispatcher</li>
+	 * <li>Dispatcher of the thread's looper on Android</li>
+	 * <li>{@link #IMMEDIATE} otherwise</li>
+	 * </ul>
+	 *
+	 * @return Dispatcher of calling thread, never null
+	 */
+	public static Dispatcher myDispatcher() {
+		Dispatcher dispatcher = CURRENT.get();
+		if (dispatcher == null && Platform.ANDROID) {
+			dispatcher = HandlerDispatcher.myLooperDispatcher();
+		}
+		return dispatcher == null ? IMMEDIATE : dispatcher;
+	}
+
+	/**
+	 * Attach a dispatcher to calling thread. To be called by dispatcher implementations when
+	 * they start a thread.
+	 *
+	 * @param dispatcher Dispatcher owning calling thread
+	 */
+	public static void setMyDispatcher(Dispatcher dispatcher) {
+		CURRENT.set(dispatcher);
+	}
+
+	/**
+	 * Attach a dispatcher to calling thread for the time of a runnable, on behalf of a
+	 * dispatcher sharing the thread of another one.
+	 *
+	 * @param dispatcher Dispatcher to attach, null to detach
+	 * @return Dispatcher attached before, possibly null, to be restored afterwards
+	 */
+	static Dispatcher replaceMyDispatcher(Dispatcher dispatcher) {
+		Dispatcher previous = CURRENT.get();
+		CURRENT.set(dispatcher);
+		return previous;
+	}
+
+	/**
+	 * Tell if calling thread is running a batch of tasks, in which case reports of tasks
+	 * completing synchronously are delivered inline instead of being sent to the dispatcher.
+	 *
+	 * @return true if reports can be delivered inline
+	 */
+	static boolean isInline() {
+		return INLINE.get() == Boolean.TRUE;
+	}
+
+	/**
+	 * @param inline true when calling thread starts a batch, false when it ends it
+	 * @return Previous value, to be restored at the end of a nested batch
+	 */
+	static boolean setInline(boolean inline) {
+		boolean previous = isInline();
+		INLINE.set(inline);
+		return previous;
+	}
+}
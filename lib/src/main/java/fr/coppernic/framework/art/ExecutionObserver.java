@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fr.coppernic.framework.art;
+
+/**
+ * Observer of the life of tasks in an executor, for metrics or traces.
+ * <p>
+ * Methods are called from any thread and shall not block. They are not called at all when no
+ * observer is set on the executor.
+ */
+public interface ExecutionObserver {
+
+	/**
+	 * A task has been added to the queue of the executor
+	 *
+	 * @param task Task
+	 */
+	void onTaskQueued(AsyncRunnable<?> task);
+
+	/**
+	 * A task has been taken from the queue, just after
+	 * {@link AsyncExecutorListener#beforeTask(AsyncRunnable)}
+	 *
+	 * @param task Task
+	 */
+	void onTaskStarted(AsyncRunnable<?> task);
+
+	/**
+	 * A task has been reported, just after
+	 * {@link AsyncExecutorListener#afterTask(AsyncRunnable, Object)}
+	 *
+	 * @param task      Task
+	 * @param cancelled true if task has been cancelled
+	 */
+	void onTaskFinished(AsyncRunnable<?> task, boolean cancelled);
+
+	/**
+	 * An {@link AsyncRunnableTask} starts an execution, on the thread executing it
+	 *
+	 * @param task Task
+	 */
+	void onTaskRunStarted(AsyncRunnable<?> task);
+
+	/**
+	 * Execution of an {@link AsyncRunnableTask} has returned, on the thread executing it. Task
+	 * is PENDING if it has not reported yet.
+	 *
+	 * @param task Task
+	 */
+	void onTaskRunEnded(AsyncRunnable<?> task);
+
+	/**
+	 * Executor has been paused
+	 */
+	void onPaused();
+
+	/**
+	 * Executor has been resumed
+	 */
+	void onResumed();
+}
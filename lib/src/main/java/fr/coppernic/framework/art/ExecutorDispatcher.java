@@ -0,0 +1,322 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fr.coppernic.framework.art;
+
+import android.annotation.TargetApi;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link Dispatcher} running on a java.util.concurrent {@link ExecutorService}, without any
+ * Android dependency.
+ * <p>
+ * Tasks executed by a pooled dispatcher may run on any thread of the pool, their completion is
+ * reported on the pool too.
+ * <p>
+ * {@link #newThreadPerTask(String)} runs every runnable on its own thread, virtual when the JVM
+ * supports it, for tasks blocking in {@link AsyncRunnable#execute()}.
+ * {@link #newForkJoin(String, int)} runs them on a work-stealing pool, for CPU-bound
+ * {@link ForkJoinAsyncTask}s.
+ * <p>
+ * Events are carried by recycled runnables, but executors usually allocate a queue node for
+ * each of them, a thread per task dispatcher allocates a thread.
+ */
+public class ExecutorDispatcher implements Dispatcher {
+
+	private static final String TAG = "ExecutorDispatcher";
+
+	private final ExecutorService executor;
+	private boolean virtual = false;
+
+	/**
+	 * Build a dispatcher on an existing executor.
+	 * <p>
+	 * Use {@link #newSingleThread(String)} or {@link #newPool(String, int)} so that tasks
+	 * report to this dispatcher when they run on its threads.
+	 *
+	 * @param executor Executor
+	 */
+	public ExecutorDispatcher(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * @param threads Number of threads, 0 for one thread per runnable
+	 */
+	private ExecutorDispatcher(String name, int threads) {
+		if (threads == 0) {
+			executor = newThreadPerTaskExecutor(name);
+			return;
+		}
+		ThreadFactory factory = new DispatcherThreadFactory(name, this, null);
+		executor = threads == 1 ? Executors.newSingleThreadExecutor(factory)
+		                        : Executors.newFixedThreadPool(threads, factory);
+	}
+
+	/**
+	 * Virtual threads are looked up by reflection : the library targets Java 7 and Android.
+	 */
+	private ExecutorService newThreadPerTaskExecutor(String name) {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = builderClass.getMethod("name", String.class, long.class)
+			                      .invoke(builder, name + "-", 1L);
+			ThreadFactory carrier = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+			Method perTask = Executors.class.getMethod("newThreadPerTaskExecutor",
+			                                           ThreadFactory.class);
+			ExecutorService service = (ExecutorService) perTask.invoke(
+				null, new DispatcherThreadFactory(name, this, carrier));
+			virtual = true;
+			return service;
+		} catch (Exception e) {
+			return Executors.newCachedThreadPool(new DispatcherThreadFactory(name, this, null));
+		}
+	}
+
+	/**
+	 * @param name Name of the thread
+	 * @return Dispatcher executing runnables one after the other on a single thread
+	 */
+	public static ExecutorDispatcher newSingleThread(String name) {
+		return new ExecutorDispatcher(name, 1);
+	}
+
+	/**
+	 * @param name    Prefix of thread names
+	 * @param threads Number of threads
+	 * @return Dispatcher executing runnables on a pool of threads
+	 */
+	public static ExecutorDispatcher newPool(String name, int threads) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("threads must be greater than 0");
+		}
+		return new ExecutorDispatcher(name, threads);
+	}
+
+	/**
+	 * Dispatcher starting a new thread for each runnable.
+	 * <p>
+	 * On Java 21 and later, threads are virtual : a task blocking on I/O releases its carrier
+	 * thread, so that thousands of blocking tasks can be in flight. Use it with
+	 * {@link ParallelAsyncExecutorService#ParallelAsyncExecutorService(Dispatcher, int)} and as
+	 * many lanes as tasks allowed in flight. Otherwise, and on Android, threads are plain daemon
+	 * threads, reused when idle.
+	 *
+	 * @param name Prefix of thread names
+	 * @return Dispatcher executing each runnable on a new thread
+	 */
+	public static ExecutorDispatcher newThreadPerTask(String name) {
+		ExecutorDispatcher dispatcher = new ExecutorDispatcher(name, 0);
+		if (!dispatcher.virtual) {
+			ArtLog.i(TAG, "Virtual threads not available, using platform threads");
+		}
+		return dispatcher;
+	}
+
+	/**
+	 * Dispatcher running on a work-stealing {@link ForkJoinPool}. Children forked by a
+	 * {@link ForkJoinAsyncTask} are executed by idle threads of the pool.
+	 *
+	 * @param name        Prefix of thread names
+	 * @param parallelism Number of threads, usually the number of cores
+	 * @return Dispatcher executing runnables on a fork-join pool
+	 */
+	@TargetApi(21)
+	public static ExecutorDispatcher newForkJoin(String name, int parallelism) {
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException("parallelism must be greater than 0");
+		}
+		ForkJoinFactory factory = new ForkJoinFactory(name);
+		ExecutorDispatcher dispatcher =
+			new ExecutorDispatcher(new ForkJoinPool(parallelism, factory, null, false));
+		factory.dispatcher = dispatcher;
+		return dispatcher;
+	}
+
+	/**
+	 * @return true if runnables are executed on virtual threads
+	 */
+	public boolean isVirtual() {
+		return virtual;
+	}
+
+	@Override
+	public boolean post(Runnable r) {
+		try {
+			executor.execute(r);
+			return true;
+		} catch (RejectedExecutionException e) {
+			return false;
+		}
+	}
+
+	@Override
+	public boolean send(Target target, int what) {
+		Event event = Event.obtain(target, what);
+		if (post(event)) {
+			return true;
+		}
+		event.recycle();
+		return false;
+	}
+
+	@Override
+	public boolean isAlive() {
+		return !executor.isShutdown();
+	}
+
+	@Override
+	public void quit() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Event carrier, recycled in a small global pool after delivery like Android's Message
+	 */
+	static final class Event implements Runnable {
+		private static final int MAX_POOL_SIZE = 50;
+		private static final Object POOL_LOCK = new Object();
+		private static Event pool = null;
+		private static int poolSize = 0;
+
+		private Event next = null;
+		private Target target = null;
+		private int what = 0;
+
+		private Event() {
+		}
+
+		static Event obtain(Target target, int what) {
+			Event event = null;
+			synchronized (POOL_LOCK) {
+				if (pool != null) {
+					event = pool;
+					pool = event.next;
+					event.next = null;
+					poolSize--;
+				}
+			}
+			if (event == null) {
+				event = new Event();
+			}
+			event.target = target;
+			event.what = what;
+			return event;
+		}
+
+		@Override
+		public void run() {
+			Target t = target;
+			int w = what;
+			// Recycle before delivery, target may send a new event right away
+			recycle();
+			t.onEvent(w);
+		}
+
+		void recycle() {
+			target = null;
+			what = 0;
+			synchronized (POOL_LOCK) {
+				if (poolSize < MAX_POOL_SIZE) {
+					next = pool;
+					pool = this;
+					poolSize++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Fork-join threads knowing their dispatcher, see {@link Dispatchers#myDispatcher()}
+	 */
+	@TargetApi(21)
+	private static class ForkJoinFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+		private final String name;
+		/* Set once the pool is built, before any runnable is posted */
+		volatile Dispatcher dispatcher = null;
+
+		ForkJoinFactory(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+			ForkJoinWorkerThread t = new ForkJoinWorkerThread(pool) {
+				@Override
+				protected void onStart() {
+					super.onStart();
+					Dispatchers.setMyDispatcher(dispatcher);
+				}
+			};
+			t.setName(name + "-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+
+	/**
+	 * Threads of this factory know their dispatcher, see {@link Dispatchers#myDispatcher()}
+	 */
+	static class DispatcherThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+		private final String name;
+		private final Dispatcher dispatcher;
+		private final ThreadFactory delegate;
+
+		/**
+		 * @param delegate Factory creating the threads, null for plain daemon threads
+		 */
+		DispatcherThreadFactory(String name, Dispatcher dispatcher, ThreadFactory delegate) {
+			this.name = name;
+			this.dispatcher = dispatcher;
+			this.delegate = delegate;
+		}
+
+		@Override
+		public Thread newThread(final Runnable r) {
+			Runnable runnable = new Runnable() {
+				@Override
+				public void run() {
+					Dispatchers.setMyDispatcher(dispatcher);
+					r.run();
+				}
+			};
+			if (delegate != null) {
+				return delegate.newThread(runnable);
+			}
+			Thread t = new Thread(runnable, name + "-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
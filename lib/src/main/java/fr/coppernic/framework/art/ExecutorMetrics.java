@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fr.coppernic.framework.art;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency and throughput metrics of an executor.
+ * <p>
+ * Set it with setObserver() of the executor, in a {@link CompositeObserver} to use it along
+ * with other observers. Durations of each {@link Phase} are recorded for all tasks and per
+ * task name ({@link AsyncRunnable#getName()}). Phase durations are only available for tasks
+ * extending {@link AsyncRunnableTask}, other tasks are only counted.
+ * <p>
+ * All getters can be polled from any thread, they never lock the executor.
+ */
+public class ExecutorMetrics implements ExecutionObserver {
+
+	private final LatencyHistogram[] all = newHistograms();
+	private final ConcurrentMap<String, LatencyHistogram[]> byName = new ConcurrentHashMap<>();
+	private final AtomicLong done = new AtomicLong();
+	private final AtomicLong cancelled = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+	private final AtomicLong firstQueuedAt = new AtomicLong();
+	private volatile long lastFinishedAt = 0;
+
+	/* ------------------- ExecutionObserver ------------------- */
+
+	@Override
+	public void onTaskQueued(AsyncRunnable<?> task) {
+		long now = System.nanoTime();
+		firstQueuedAt.compareAndSet(0, now);
+		if (task instanceof AsyncRunnableTask) {
+			((AsyncRunnableTask<?>) task).setQueuedAt(now);
+		}
+	}
+
+	@Override
+	public void onTaskStarted(AsyncRunnable<?> task) {
+		if (task instanceof AsyncRunnableTask) {
+			((AsyncRunnableTask<?>) task).setStartedAt(System.nanoTime());
+		}
+	}
+
+	@Override
+	public void onTaskFinished(AsyncRunnable<?> task, boolean cancelled) {
+		long now = System.nanoTime();
+		lastFinishedAt = now;
+		if (cancelled) {
+			this.cancelled.incrementAndGet();
+		} else {
+			done.incrementAndGet();
+		}
+		if (!(task instanceof AsyncRunnableTask)) {
+			return;
+		}
+		AsyncRunnableTask<?> t = (AsyncRunnableTask<?>) task;
+		if (t.isTimedOut()) {
+			timeouts.incrementAndGet();
+		}
+		long queuedAt = t.getQueuedAt();
+		long startedAt = t.getStartedAt();
+		if (queuedAt == 0 || startedAt == 0) {
+			// Not observed from the beginning
+			return;
+		}
+		LatencyHistogram[] named = histogramsOf(String.valueOf(task.getName()));
+		record(named, Phase.QUEUE_WAIT, startedAt - queuedAt);
+		long firstRunAt = t.getFirstRunAt();
+		if (firstRunAt != 0) {
+			record(named, Phase.DISPATCH, firstRunAt - startedAt);
+			record(named, Phase.PENDING, t.getPendingNanos());
+		}
+		record(named, Phase.TOTAL, now - queuedAt);
+	}
+
+	@Override
+	public void onTaskRunStarted(AsyncRunnable<?> task) {
+		// Recorded by the task itself
+	}
+
+	@Override
+	public void onTaskRunEnded(AsyncRunnable<?> task) {
+		// Recorded by the task itself
+	}
+
+	@Override
+	public void onPaused() {
+	}
+
+	@Override
+	public void onResumed() {
+	}
+
+	/* ------------------- Metrics ------------------- */
+
+	/**
+	 * @param phase Phase
+	 * @return Durations of phase for all tasks
+	 */
+	public LatencyHistogram getHistogram(Phase phase) {
+		return all[phase.ordinal()];
+	}
+
+	/**
+	 * @param name  Name of tasks
+	 * @param phase Phase
+	 * @return Durations of phase for tasks of this name, null if no task of this name is done
+	 */
+	public LatencyHistogram getHistogram(String name, Phase phase) {
+		LatencyHistogram[] histograms = byName.get(name);
+		return histograms == null ? null : histograms[phase.ordinal()];
+	}
+
+	/**
+	 * @return Names of tasks done so far
+	 */
+	public Set<String> getTaskNames() {
+		return Collections.unmodifiableSet(byName.keySet());
+	}
+
+	/**
+	 * @return Number of tasks that called onDone
+	 */
+	public long getDoneCount() {
+		return done.get();
+	}
+
+	/**
+	 * @return Number of tasks that called onCancel or were cancelled by the executor
+	 */
+	public long getCancelledCount() {
+		return cancelled.get();
+	}
+
+	/**
+	 * @return Number of tasks whose watchdog expired
+	 */
+	public long getTimeoutCount() {
+		return timeouts.get();
+	}
+
+	/**
+	 * @return Tasks finished per second, from first task added to last task finished
+	 */
+	public double getThroughput() {
+		long first = firstQueuedAt.get();
+		long elapsed = lastFinishedAt - first;
+		if (first == 0 || elapsed <= 0) {
+			return 0;
+		}
+		return (done.get() + cancelled.get()) * 1e9 / elapsed;
+	}
+
+	/**
+	 * Forget everything recorded so far
+	 */
+	public void reset() {
+		for (LatencyHistogram histogram : all) {
+			histogram.reset();
+		}
+		byName.clear();
+		done.set(0);
+		cancelled.set(0);
+		timeouts.set(0);
+		firstQueuedAt.set(0);
+		lastFinishedAt = 0;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("done=").append(getDoneCount())
+		  .append(", cancelled=").append(getCancelledCount())
+		  .append(", timeouts=").append(getTimeoutCount())
+		  .append(", throughput=").append((long) getThroughput()).append("/s");
+		for (Phase phase : Phase.values()) {
+			sb.append('\n').append(phase).append(" : ").append(getHistogram(phase));
+		}
+		return sb.toString();
+	}
+
+	private LatencyHistogram[] histogramsOf(String name) {
+		LatencyHistogram[] histograms = byName.get(name);
+		if (histograms == null) {
+			LatencyHistogram[] created = newHistograms();
+			histograms = byName.putIfAbsent(name, created);
+			if (histograms == null) {
+				histograms = created;
+			}
+		}
+		return histograms;
+	}
+
+	private void record(LatencyHistogram[] named, Phase phase, long nanos) {
+		all[phase.ordinal()].record(nanos);
+		named[phase.ordinal()].record(nanos);
+	}
+
+	private static LatencyHistogram[] newHistograms() {
+		LatencyHistogram[] histograms = new LatencyHistogram[Phase.values().length];
+		for (int i = 0; i < histograms.length; i++) {
+			histograms[i] = new LatencyHistogram();
+		}
+		return histograms;
+	}
+
+	/**
+	 * Phases of the life of a task
+	 */
+	public enum Phase {
+		/**
+		 * From add() to {@link AsyncExecutorListener#beforeTask(AsyncRunnable)}
+		 */
+		QUEUE_WAIT,
+		/**
+		 * From {@link AsyncExecutorListener#beforeTask(AsyncRunnable)} to first run()
+		 */
+		DISPATCH,
+		/**
+		 * Time spent PENDING, between executions and until the task reports
+		 */
+		PENDING,
+		/**
+		 * From add() to {@link AsyncExecutorListener#afterTask(AsyncRunnable, Object)}
+		 */
+		TOTAL,
+	}
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fr.coppernic.framework.art;
+
+import android.annotation.TargetApi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Task splitting its work into child tasks executed in parallel, for CPU-bound work.
+ * <p>
+ * {@link #compute()} forks children with {@link #forkAndJoin(List)} and returns the result
+ * given to onDone(). Executed by a dispatcher built with
+ * {@link ExecutorDispatcher#newForkJoin(String, int)}, children are work-stolen by idle threads
+ * of the pool while the parent helps executing them. Elsewhere, children are executed one
+ * after the other in the thread of the parent.
+ * <p>
+ * Children shall report synchronously, from their execute(). They can be ForkJoinAsyncTasks
+ * themselves, to split the work recursively.
+ */
+@TargetApi(21)
+public abstract class ForkJoinAsyncTask<V> extends AsyncRunnableTask<V> {
+
+	/**
+	 * Compute the result of this task, forking children if needed
+	 *
+	 * @return Result given to onDone()
+	 * @throws CancellationException to cancel the task, thrown by forkAndJoin() when a child
+	 *                               is cancelled
+	 */
+	protected abstract V compute();
+
+	@Override
+	public final void execute() {
+		V result;
+		try {
+			result = compute();
+		} catch (CancellationException e) {
+			onCancel(null);
+			return;
+		}
+		onDone(result);
+	}
+
+	/**
+	 * Execute children in parallel and wait for all of them. When a child is cancelled, the
+	 * other ones are cancelled too : those not started yet are not executed.
+	 *
+	 * @param children Tasks to execute, each one is executed once
+	 * @return Results of children, in the same order
+	 * @throws CancellationException if a child calls onCancel()
+	 * @throws IllegalStateException if a child did not report synchronously
+	 */
+	protected <C> List<C> forkAndJoin(List<? extends AsyncRunnable<C>> children) {
+		List<Child<C>> tasks = new ArrayList<>(children.size());
+		AtomicBoolean cancelled = new AtomicBoolean(false);
+		for (AsyncRunnable<C> child : children) {
+			tasks.add(new Child<>(child, tasks, cancelled));
+		}
+		if (ForkJoinTask.inForkJoinPool()) {
+			ForkJoinTask.invokeAll(tasks);
+		} else {
+			for (Child<C> task : tasks) {
+				task.invoke();
+			}
+		}
+		List<C> results = new ArrayList<>(tasks.size());
+		for (Child<C> task : tasks) {
+			if (task.cancelled) {
+				throw new CancellationException(task.child + " has been cancelled");
+			}
+			results.add(task.result);
+		}
+		return results;
+	}
+
+	/**
+	 * Fork-join wrapper of a child, collecting its report
+	 */
+	private static final class Child<C> extends RecursiveAction
+		implements AsyncRunnableListener<C> {
+		private static final long serialVersionUID = 1L;
+
+		final AsyncRunnable<C> child;
+		private final List<Child<C>> siblings;
+		/* Set by the first child cancelled */
+		private final AtomicBoolean siblingCancelled;
+		C result = null;
+		boolean cancelled = false;
+		boolean reported = false;
+
+		Child(AsyncRunnable<C> child, List<Child<C>> siblings, AtomicBoolean siblingCancelled) {
+			this.child = child;
+			this.siblings = siblings;
+			this.siblingCancelled = siblingCancelled;
+		}
+
+		@Override
+		protected void compute() {
+			if (siblingCancelled.get()) {
+				// Result will not be used
+				child.cancel();
+				cancelled = true;
+				reported = true;
+				return;
+			}
+			child.setListener(this);
+			// Report is delivered in this thread, without going through the dispatcher
+			boolean inline = Dispatchers.setInline(true);
+			try {
+				child.run();
+			} finally {
+				Dispatchers.setInline(inline);
+			}
+			if (!reported && siblingCancelled.get()) {
+				// Cancelled by a sibling before it started
+				cancelled = true;
+				reported = true;
+			} else if (!reported) {
+				throw new IllegalStateException(child + " did not report synchronously");
+			}
+		}
+
+		@Override
+		public void onDone(AsyncRunnable<C> task, C param) {
+			result = param;
+			reported = true;
+		}
+
+		@Override
+		public void onCancel(AsyncRunnable<C> task, C param) {
+			result = param;
+			cancelled = true;
+			reported = true;
+			if (siblingCancelled.compareAndSet(false, true)) {
+				for (Child<C> sibling : siblings) {
+					if (sibling != this) {
+						sibling.child.cancel();
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fr.coppernic.framework.art;
+
+import android.annotation.TargetApi;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.MessageQueue;
+
+import java.io.FileDescriptor;
+
+/**
+ * {@link Dispatcher} running on an Android {@link Looper}
+ * <p>
+ * Events are sent as {@link Message}s taken from the global pool, they are recycled by the
+ * looper once handled : sending an event does not allocate.
+ */
+public class HandlerDispatcher implements Dispatcher {
+
+	private static final Handler.Callback EVENTS = new Handler.Callback() {
+		@Override
+		public boolean handleMessage(Message msg) {
+			if (!(msg.obj instanceof Target)) {
+				// Not sent by this dispatcher, let the handler deal with it
+				return false;
+			}
+			((Target) msg.obj).onEvent(msg.what);
+			return true;
+		}
+	};
+	private static final ThreadLocal<HandlerDispatcher> LOOPER_DISPATCHER = new ThreadLocal<>();
+
+	private final Handler handler;
+
+	/**
+	 * @param handlerThread Thread of the dispatcher, started if needed
+	 */
+	public HandlerDispatcher(HandlerThread handlerThread) {
+		if (!handlerThread.isAlive()) {
+			handlerThread.start();
+		}
+		handler = new Handler(handlerThread.getLooper(), EVENTS);
+	}
+
+	/**
+	 * @param looper Looper of the dispatcher
+	 */
+	public HandlerDispatcher(Looper looper) {
+		handler = new Handler(looper, EVENTS);
+	}
+
+	/**
+	 * @return Dispatcher of the looper of calling thread, null if thread has no looper
+	 */
+	static Dispatcher myLooperDispatcher() {
+		Looper looper = Looper.myLooper();
+		if (looper == null) {
+			return null;
+		}
+		// One dispatcher per looper thread, not one per task
+		HandlerDispatcher dispatcher = LOOPER_DISPATCHER.get();
+		if (dispatcher == null || dispatcher.handler.getLooper() != looper) {
+			dispatcher = new HandlerDispatcher(looper);
+			LOOPER_DISPATCHER.set(dispatcher);
+		}
+		return dispatcher;
+	}
+
+	@Override
+	public boolean post(Runnable r) {
+		return handler.post(r);
+	}
+
+	@Override
+	public boolean send(Target target, int what) {
+		return handler.sendMessage(Message.obtain(handler, what, target));
+	}
+
+	@Override
+	public boolean isAlive() {
+		return handler.getLooper().getThread().isAlive();
+	}
+
+	@Override
+	public void quit() {
+		handler.getLooper().quit();
+	}
+
+	/**
+	 * Deliver an event to a target once a file descriptor becomes readable. The descriptor is
+	 * polled by the looper itself, along with its messages.
+	 * <p>
+	 * A previous request on the same descriptor is replaced.
+	 *
+	 * @param fd     File descriptor to watch
+	 * @param target Receiver of the event
+	 * @param what   Event code
+	 */
+	@TargetApi(23)
+	public void sendWhenReadable(FileDescriptor fd, final Target target, final int what) {
+		handler.getLooper().getQueue().addOnFileDescriptorEventListener(
+			fd, MessageQueue.OnFileDescriptorEventListener.EVENT_INPUT,
+			new MessageQueue.OnFileDescriptorEventListener() {
+				@Override
+				public int onFileDescriptorEvents(FileDescriptor fd, int events) {
+					target.onEvent(what);
+					// Unregister, one event per request
+					return 0;
+				}
+			});
+	}
+
+	/**
+	 * Built here rather than in the task, so that tasks load without Android.
+	 *
+	 * @param task Task receiving the messages
+	 * @return Handler of this looper delivering its messages to
+	 * {@link AsyncRunnableTask#handleMessage(Message)}
+	 */
+	@SuppressWarnings("deprecation")
+	Handler newTaskHandler(final AsyncRunnableTask<?> task) {
+		return new Handler(handler.getLooper(), new Handler.Callback() {
+			@Override
+			public boolean handleMessage(Message msg) {
+				return task.handleMessage(msg);
+			}
+		});
+	}
+
+	/**
+	 * @return Handler used to post runnables
+	 */
+	public Handler getHandler() {
+		return handler;
+	}
+}
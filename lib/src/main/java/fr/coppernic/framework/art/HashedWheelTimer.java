@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fr.coppernic.framework.art;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import fr.coppernic.framework.io.Disposable;
+
+/**
+ * Timer shared by many tasks, based on a hashed timing wheel.
+ * <p>
+ * One worker thread, started on first use, advances the wheel every tick. Scheduling and
+ * cancelling a {@link TimerTask} are O(1) and never create a thread. Tasks are executed on the
+ * worker thread with a precision of one tick, so they shall be short.
+ */
+public class HashedWheelTimer implements Disposable {
+
+	private static final String TAG = "HashedWheelTimer";
+	private static final long DEFAULT_TICK_MS = 10;
+	private static final int DEFAULT_TICKS_PER_WHEEL = 512;
+	/**
+	 * Max number of new tasks put in the wheel per tick, to keep ticks on time under bursts
+	 */
+	private static final int MAX_TRANSFERS_PER_TICK = 100000;
+
+	private final long tickNanos;
+	private final Bucket[] wheel;
+	private final int mask;
+	private final String name;
+	private final ConcurrentLinkedQueue<TimerTask> toSchedule = new ConcurrentLinkedQueue<>();
+	private final ConcurrentLinkedQueue<TimerTask> toCancel = new ConcurrentLinkedQueue<>();
+	private final Object lock = new Object();
+	private Thread worker = null;
+	private volatile boolean disposed = false;
+	private volatile long startTime = 0;
+	private long tick = 0;
+
+	/**
+	 * @param name          Name of worker thread
+	 * @param tickDuration  Resolution of the timer
+	 * @param unit          Unit of tickDuration
+	 * @param ticksPerWheel Number of buckets, rounded to next power of two
+	 */
+	public HashedWheelTimer(String name, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+		if (tickDuration <= 0) {
+			throw new IllegalArgumentException("tickDuration must be greater than 0");
+		} else if (ticksPerWheel <= 0 || ticksPerWheel > 1 << 30) {
+			throw new IllegalArgumentException("ticksPerWheel out of range : " + ticksPerWheel);
+		}
+		int size = 1;
+		while (size < ticksPerWheel) {
+			size <<= 1;
+		}
+		this.name = name;
+		tickNanos = unit.toNanos(tickDuration);
+		wheel = new Bucket[size];
+		for (int i = 0; i < size; i++) {
+			wheel[i] = new Bucket();
+		}
+		mask = size - 1;
+	}
+
+	/**
+	 * Timer shared by all tasks, with a resolution of 10ms.
+	 *
+	 * @return Default timer
+	 */
+	public static HashedWheelTimer getDefault() {
+		return DefaultHolder.INSTANCE;
+	}
+
+	/**
+	 * Schedule a task for a single execution.
+	 * <p>
+	 * A {@link TimerTask} can be scheduled only once.
+	 *
+	 * @param task  Task to execute
+	 * @param delay Delay before execution
+	 * @param unit  Unit of delay
+	 */
+	public void schedule(TimerTask task, long delay, TimeUnit unit) {
+		if (disposed) {
+			throw new IllegalStateException("Timer is disposed");
+		}
+		start();
+		// Set before state so that a concurrent cancel() finds its timer
+		task.timer = this;
+		if (!TimerTask.STATE.compareAndSet(task, TimerTask.ST_INIT, TimerTask.ST_SCHEDULED)) {
+			throw new IllegalStateException("Task already scheduled");
+		}
+		task.deadline = System.nanoTime() - startTime + unit.toNanos(Math.max(delay, 0));
+		toSchedule.add(task);
+	}
+
+	/**
+	 * @return Resolution of this timer in nanoseconds
+	 */
+	public long getTickNanos() {
+		return tickNanos;
+	}
+
+	/* ------------------- Disposable ------------------- */
+
+	/**
+	 * Stop the worker thread. Tasks not executed yet will never be.
+	 */
+	@Override
+	public void dispose() {
+		disposed = true;
+		synchronized (lock) {
+			if (worker != null) {
+				worker.interrupt();
+			}
+		}
+	}
+
+	private void start() {
+		if (worker != null) {
+			return;
+		}
+		synchronized (lock) {
+			if (worker == null) {
+				startTime = System.nanoTime();
+				worker = new Thread(new Worker(), name);
+				worker.setDaemon(true);
+				worker.start();
+			}
+		}
+	}
+
+	private static final class DefaultHolder {
+		static final HashedWheelTimer INSTANCE =
+			new HashedWheelTimer(TAG, DEFAULT_TICK_MS, TimeUnit.MILLISECONDS,
+			                     DEFAULT_TICKS_PER_WHEEL);
+	}
+
+	/**
+	 * Task that can be scheduled once with a {@link HashedWheelTimer}.
+	 */
+	public abstract static class TimerTask implements Runnable {
+
+		private static final int ST_INIT = 0;
+		private static final int ST_SCHEDULED = 1;
+		private static final int ST_CANCELLED = 2;
+		private static final int ST_EXPIRED = 3;
+		private static final AtomicIntegerFieldUpdater<TimerTask> STATE =
+			AtomicIntegerFieldUpdater.newUpdater(TimerTask.class, "state");
+
+		@SuppressWarnings("unused")
+		private volatile int state = ST_INIT;
+		private volatile HashedWheelTimer timer = null;
+		private long deadline = 0;
+		private long remainingRounds = 0;
+		private Bucket bucket = null;
+		private TimerTask next = null;
+		private TimerTask prev = null;
+
+		/**
+		 * Cancel this task. It will not be executed.
+		 *
+		 * @return true if task was cancelled, false if it was already executed or cancelled
+		 */
+		public boolean cancel() {
+			if (!STATE.compareAndSet(this, ST_SCHEDULED, ST_CANCELLED)) {
+				return false;
+			}
+			// Removal from the wheel is done by the worker
+			timer.toCancel.add(this);
+			return true;
+		}
+
+		/**
+		 * @return true if this task has been cancelled
+		 */
+		public boolean isCancelled() {
+			return state == ST_CANCELLED;
+		}
+
+		private void expire() {
+			if (!STATE.compareAndSet(this, ST_SCHEDULED, ST_EXPIRED)) {
+				return;
+			}
+			try {
+				run();
+			} catch (Throwable t) {
+				ArtLog.e(TAG, "Exception in timer task " + this, t);
+			}
+		}
+	}
+
+	/**
+	 * Doubly linked list of tasks, only accessed by the worker thread
+	 */
+	private static final class Bucket {
+		private TimerTask head = null;
+		private TimerTask tail = null;
+
+		void add(TimerTask task) {
+			task.bucket = this;
+			if (head == null) {
+				head = tail = task;
+			} else {
+				tail.next = task;
+				task.prev = tail;
+				tail = task;
+			}
+		}
+
+		void remove(TimerTask task) {
+			if (task.prev != null) {
+				task.prev.next = task.next;
+			}
+			if (task.next != null) {
+				task.next.prev = task.prev;
+			}
+			if (task == head) {
+				head = task.next;
+			}
+			if (task == tail) {
+				tail = task.prev;
+			}
+			task.prev = null;
+			task.next = null;
+			task.bucket = null;
+		}
+
+		void expire() {
+			TimerTask task = head;
+			while (task != null) {
+				TimerTask next = task.next;
+				if (task.remainingRounds <= 0) {
+					remove(task);
+					task.expire();
+				} else {
+					task.remainingRounds--;
+				}
+				task = next;
+			}
+		}
+	}
+
+	private final class Worker implements Runnable {
+
+		@Override
+		public void run() {
+			while (!disposed) {
+				if (!waitForNextTick()) {
+					break;
+				}
+				removeCancelled();
+				transferScheduled();
+				wheel[(int) (tick & mask)].expire();
+				tick++;
+			}
+		}
+
+		/**
+		 * @return false if timer has been disposed while waiting
+		 */
+		private boolean waitForNextTick() {
+			long deadline = tickNanos * (tick + 1);
+			while (true) {
+				long current = System.nanoTime() - startTime;
+				long sleepMs = (deadline - current + 999999) / 1000000;
+				if (sleepMs <= 0) {
+					return true;
+				}
+				try {
+					Thread.sleep(sleepMs);
+				} catch (InterruptedException e) {
+					if (disposed) {
+						return false;
+					}
+				}
+			}
+		}
+
+		private void transferScheduled() {
+			for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+				TimerTask task = toSchedule.poll();
+				if (task == null) {
+					break;
+				}
+				if (task.state != TimerTask.ST_SCHEDULED) {
+					continue;
+				}
+				long ticks = task.deadline / tickNanos;
+				task.remainingRounds = (ticks - tick) / wheel.length;
+				// Do not schedule in the past
+				long t = Math.max(ticks, tick);
+				wheel[(int) (t & mask)].add(task);
+			}
+		}
+
+		private void removeCancelled() {
+			while (true) {
+				TimerTask task = toCancel.poll();
+				if (task == null) {
+					break;
+				}
+				if (task.bucket != null) {
+					task.bucket.remove(task);
+				}
+			}
+		}
+	}
+}
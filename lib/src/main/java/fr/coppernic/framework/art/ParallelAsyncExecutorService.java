@@ -0,0 +1,672 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fr.coppernic.framework.art;
+
+import android.os.HandlerThread;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import fr.coppernic.framework.art.AsyncRunnable.State;
+
+/**
+ * Executor service running independent tasks on several lanes at the same time.
+ * <p>
+ * Each lane executes one task at a time on its {@link Dispatcher}. All lanes drain the same task
+ * queue, so there are at most as many tasks executing as there are lanes. Lanes may share a
+ * pooled dispatcher.
+ * <p>
+ * {@link AsyncExecutorListener#beforeTask(AsyncRunnable)} and
+ * {@link AsyncExecutorListener#afterTask(AsyncRunnable, Object)} are called once per task, never
+ * concurrently. Order of completion between lanes is not guaranteed.
+ */
+public class ParallelAsyncExecutorService<V, T extends AsyncRunnable<V>>
+	implements AsyncExecutor<V, T> {
+
+	private static final String TAG = "ParallelExecutor";
+	private static final boolean DEBUG = true;
+
+	private final List<Lane<T>> lanes;
+	private final PriorityTaskQueue<T> taskQueue = new PriorityTaskQueue<>();
+	private final AtomicReference<State> mState = new AtomicReference<>(State.IDLE);
+	private AsyncExecutorListener<V, T> listener = new DummyListener();
+	private volatile ExecutionObserver observer = null;
+	/* Set by pause(), wake-ups of the tasks on lanes wait for resume() */
+	private volatile boolean paused = false;
+	private final AsyncRunnableTask.WakeUpGate wakeUpGate = new AsyncRunnableTask.WakeUpGate() {
+		@Override
+		public boolean isWakeUpDeferred() {
+			return paused;
+		}
+	};
+	private final TaskFutures<V> futures = new TaskFutures<>();
+	private boolean disposed = false;
+
+	/**
+	 * @param handlerThreads One handler thread per lane. Threads are started if needed.
+	 */
+	public ParallelAsyncExecutorService(HandlerThread... handlerThreads) {
+		this(toDispatchers(handlerThreads));
+	}
+
+	/**
+	 * @param dispatchers One dispatcher per lane
+	 */
+	public ParallelAsyncExecutorService(Dispatcher... dispatchers) {
+		if (dispatchers.length == 0) {
+			throw new IllegalArgumentException("At least one lane is needed");
+		}
+		lanes = new ArrayList<>(dispatchers.length);
+		for (Dispatcher dispatcher : dispatchers) {
+			lanes.add(new Lane<T>(dispatcher));
+		}
+	}
+
+	/**
+	 * @param dispatcher Pooled dispatcher shared by all lanes
+	 * @param laneCount  Max number of tasks executing at the same time
+	 */
+	public ParallelAsyncExecutorService(Dispatcher dispatcher, int laneCount) {
+		this(repeat(dispatcher, laneCount));
+	}
+
+	/* ------------------- AsyncExecutor ------------------- */
+
+	@Override
+	public void add(T command) {
+		add(command, PRIORITY_NORMAL);
+	}
+
+	@Override
+	public void add(T command, int priority) {
+		taskQueue.add(command, priority);
+		ExecutionObserver o = observer;
+		if (o != null) {
+			o.onTaskQueued(command);
+		}
+	}
+
+	/**
+	 * Add a task and get the future of its result
+	 *
+	 * @param command task to be executed
+	 * @return Future done or cancelled when task reports
+	 */
+	public TaskFuture<V> submit(T command) {
+		return submit(command, PRIORITY_NORMAL);
+	}
+
+	/**
+	 * Add a task and get the future of its result
+	 *
+	 * @param command  task to be executed
+	 * @param priority from {@link #PRIORITY_LOW} to {@link #PRIORITY_URGENT}
+	 * @return Future done or cancelled when task reports
+	 */
+	public TaskFuture<V> submit(T command, int priority) {
+		// Registered first, task may be done before add() returns
+		TaskFuture<V> future = futures.register(command);
+		try {
+			add(command, priority);
+		} catch (RuntimeException e) {
+			futures.complete(command, null, true);
+			throw e;
+		}
+		return future;
+	}
+
+	@Override
+	public void addAll(Collection<T> c) {
+		taskQueue.addAll(c);
+		ExecutionObserver o = observer;
+		if (o != null) {
+			for (T command : c) {
+				o.onTaskQueued(command);
+			}
+		}
+	}
+
+	/**
+	 * Choose how pending tasks of different priorities are selected.
+	 * <p>
+	 * Default is {@link PriorityTaskQueue.Selection#STRICT} with
+	 * {@link PriorityTaskQueue#DEFAULT_AGING_THRESHOLD}.
+	 *
+	 * @param selection      Selection between priority levels
+	 * @param agingThreshold Number of times a priority level can be skipped before it is
+	 *                       served, 0 to disable aging
+	 */
+	public void setPrioritySelection(PriorityTaskQueue.Selection selection, int agingThreshold) {
+		taskQueue.configure(selection, agingThreshold);
+	}
+
+	@Override
+	public synchronized boolean isExecuting() {
+		for (Lane<T> lane : lanes) {
+			if (lane.current != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void setListener(AsyncExecutorListener<V, T> listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Observe the life of tasks, see {@link ExecutorMetrics}. Shall be set before adding tasks.
+	 *
+	 * @param observer Observer, null to remove it
+	 */
+	public void setObserver(ExecutionObserver observer) {
+		this.observer = observer;
+	}
+
+	@Override
+	public synchronized RetCode execute() {
+		if (mState.get() != State.IDLE) {
+			return RetCode.WRONG_STATE;
+		}
+		mState.set(State.RUNNING);
+		return launchExecution();
+	}
+
+	@Override
+	public synchronized RetCode executeAndPause() {
+		if (mState.get() != State.IDLE) {
+			return RetCode.WRONG_STATE;
+		}
+		mState.set(State.PAUSING);
+		return launchExecution();
+	}
+
+	/**
+	 * Execute again every task that is waiting in {@link State#PENDING} state on a lane.
+	 *
+	 * @return {@link RetCode#OK} if at least one task has been posted
+	 */
+	@Override
+	public synchronized RetCode executeCurrent() {
+		if (mState.get() != State.RUNNING) {
+			return RetCode.WRONG_STATE;
+		} else if (!isExecuting()) {
+			return RetCode.NO_TASKS;
+		}
+		RetCode ret = RetCode.WRONG_STATE;
+		for (Lane<T> lane : lanes) {
+			if (lane.current != null && lane.current.getState() == State.PENDING) {
+				lane.dispatcher.post(lane.current);
+				ret = RetCode.OK;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Called by a task when this one has done.
+	 * <p> We don't know the thread from which this method is called
+	 *
+	 * @param param result of the task
+	 */
+	@Override
+	public synchronized void onDone(AsyncRunnable<V> task, V param) {
+		Lane<T> lane = laneOf(task);
+		if (lane == null) {
+			//Task was cancelled, nothing to do
+			logd("No lane for " + task + " - task was cancelled");
+			return;
+		}
+		@SuppressWarnings("unchecked")
+		T t = (T) task;
+		listener.afterTask(t, param);
+		notifyFinished(task, param, false);
+		lane.current = null;
+		onTaskDone(t, param);
+		onLaneIdle();
+	}
+
+	/**
+	 * Called by a task that wants to cancel the whole suite. Tasks executing on other lanes
+	 * are cancelled too, unless {@link #shouldCancelSuite(AsyncRunnable, Object)} decides
+	 * otherwise. {@link AsyncExecutorListener#onCancelled()} is called once every lane has
+	 * reported its task.
+	 */
+	@Override
+	public synchronized void onCancel(AsyncRunnable<V> task, V param) {
+		Lane<T> lane = laneOf(task);
+		if (lane == null) {
+			//Task was cancelled, nothing to do
+			return;
+		}
+		@SuppressWarnings("unchecked")
+		T t = (T) task;
+		listener.afterTask(t, param);
+		notifyFinished(task, param, true);
+		lane.current = null;
+		if (shouldCancelSuite(t, param)) {
+			mState.set(State.CANCELLED);
+			taskQueue.clear();
+			cancelLanes();
+		}
+		onLaneIdle();
+	}
+
+	@Override
+	public synchronized void doActionForAllPendingTasks(TaskAction<V> action) {
+		// Execute action only on tasks that are not running
+		for (Lane<T> lane : lanes) {
+			if (lane.current != null && !lane.current.getState().equals(State.RUNNING)) {
+				action.action(lane.current);
+			}
+		}
+		// Execute action for all pending tasks
+		for (AsyncRunnable<V> task : taskQueue) {
+			action.action(task);
+		}
+	}
+
+	/**
+	 * Tasks already executing on lanes are finishing, no new task is started.
+	 * {@link AsyncExecutorListener#onPaused()} is called when all lanes are idle.
+	 */
+	@Override
+	public synchronized RetCode pause() {
+		if (mState.get() != State.RUNNING) {
+			return RetCode.WRONG_STATE;
+		} else {
+			mState.set(State.PAUSING);
+			paused = true;
+			notifyPaused(true);
+			return RetCode.OK;
+		}
+	}
+
+	@Override
+	public synchronized RetCode resume() {
+		if (mState.get() == State.PAUSING || mState.get() == State.PENDING) {
+			mState.set(State.RUNNING);
+			resumeWakeUps();
+			notifyPaused(false);
+			continueTasks();
+			return RetCode.OK;
+		} else {
+			return RetCode.WRONG_STATE;
+		}
+	}
+
+	@Override
+	public synchronized RetCode executeOneTask() {
+		if (mState.get() != State.PENDING) {
+			return RetCode.WRONG_STATE;
+		} else {
+			mState.set(State.PAUSING);
+			// This task is executed as if running, it may be woken up
+			paused = false;
+			if (!dispatchOne()) {
+				onSuiteDone();
+				tearDown();
+				listener.onDone();
+			}
+			return RetCode.OK;
+		}
+	}
+
+	@Override
+	public State getState() {
+		return mState.get();
+	}
+
+	/**
+	 * @return Number of lanes of this executor
+	 */
+	public int getLaneCount() {
+		return lanes.size();
+	}
+
+	/* ------------------- Disposable ------------------- */
+
+	/**
+	 * Cancel all lanes and stop the dispatchers given to the Executor.
+	 * <p>
+	 * Lanes whose task is running are stopped when their task reports.
+	 */
+	@Override
+	public synchronized void dispose() {
+		if (disposed) {
+			//Already cancelled;
+			return;
+		}
+
+		disposed = true;
+		boolean executing = isExecuting();
+		mState.set(State.CANCELLED);
+		taskQueue.clear();
+		futures.cancelAll();
+		cancelLanes();
+		if (!isExecuting()) {
+			quitLanes();
+			if (executing) {
+				tearDown();
+				listener.onCancelled();
+			}
+		}
+	}
+
+	/* ------------------- Hooks ------------------- */
+
+	/**
+	 * Give the next task to execute. Called with executor lock held.
+	 *
+	 * @return Next task or null if no task is ready
+	 */
+	protected T nextTask() {
+		return taskQueue.poll();
+	}
+
+	/**
+	 * Called with executor lock held when a task is about to be posted on a lane, just after
+	 * {@link AsyncExecutorListener#beforeTask(AsyncRunnable)}.
+	 *
+	 * @param task Task that will be executed
+	 */
+	protected void onTaskDispatched(T task) {
+	}
+
+	/**
+	 * Called with executor lock held when a task has done, before next tasks are dispatched.
+	 *
+	 * @param task  Task that has done
+	 * @param param Result of the task
+	 */
+	protected void onTaskDone(T task, V param) {
+	}
+
+	/**
+	 * Called with executor lock held when a task calls onCancel.
+	 *
+	 * @param task  Task that has cancelled
+	 * @param param Result of the task, can be null
+	 * @return true to cancel the whole suite, false to go on with other tasks
+	 */
+	protected boolean shouldCancelSuite(T task, V param) {
+		return true;
+	}
+
+	/**
+	 * Called with executor lock held when the suite is done, just before
+	 * {@link AsyncExecutorListener#onDone()}.
+	 */
+	protected void onSuiteDone() {
+	}
+
+	/* ------------------- Internals ------------------- */
+
+	private RetCode launchExecution() {
+		for (T command : taskQueue) {
+			command.setListener(this);
+		}
+
+		if (taskQueue.isEmpty()) {
+			onSuiteDone();
+			tearDown();
+			listener.onDone();
+			return RetCode.NO_TASKS;
+		} else if (mState.get() == State.PAUSING) {
+			dispatchOne();
+		} else {
+			continueTasks();
+		}
+		return RetCode.OK;
+	}
+
+	/**
+	 * A lane has just released its task, decide what to do next according to state.
+	 */
+	private void onLaneIdle() {
+		switch (mState.get()) {
+			case RUNNING:
+				continueTasks();
+				break;
+			case PAUSING:
+			case PENDING:
+				if (!isExecuting()) {
+					mState.set(State.PENDING);
+					listener.onPaused();
+				}
+				break;
+			case CANCELLED:
+				if (!isExecuting()) {
+					tearDown();
+					if (disposed) {
+						quitLanes();
+					}
+					listener.onCancelled();
+				}
+				break;
+			case IDLE:
+			case DONE:
+			default:
+				//no op
+				break;
+		}
+	}
+
+	/**
+	 * Accept wake-ups again, and post the ones deferred while paused
+	 */
+	private void resumeWakeUps() {
+		paused = false;
+		for (Lane<T> lane : lanes) {
+			if (lane.current instanceof AsyncRunnableTask) {
+				((AsyncRunnableTask<?>) lane.current).postDeferredWakeUp();
+			}
+		}
+	}
+
+	/**
+	 * Fill every idle lane with a ready task. Suite is done when no task is ready and no lane
+	 * is executing.
+	 */
+	private void continueTasks() {
+		//noinspection StatementWithEmptyBody
+		while (dispatchOne()) {
+			// Fill lanes
+		}
+		if (!isExecuting()) {
+			//No more task
+			onSuiteDone();
+			tearDown();
+			listener.onDone();
+		}
+	}
+
+	/**
+	 * Execute next ready task on the first idle lane.
+	 *
+	 * @return true if a task has been dispatched
+	 */
+	private boolean dispatchOne() {
+		for (Lane<T> lane : lanes) {
+			if (lane.current == null) {
+				T task = nextTask();
+				if (task == null) {
+					return false;
+				}
+				lane.current = task;
+				task.setListener(this);
+				// Hook
+				listener.beforeTask(task);
+				ExecutionObserver o = observer;
+				if (task instanceof AsyncRunnableTask) {
+					// Observer of a previous executor shall not see this execution
+					((AsyncRunnableTask<?>) task).setObserver(o);
+					((AsyncRunnableTask<?>) task).setWakeUpGate(wakeUpGate);
+				}
+				if (o != null) {
+					o.onTaskStarted(task);
+				}
+				onTaskDispatched(task);
+				// Execute task
+				lane.dispatcher.post(task);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Cancel the task of every lane. Tasks that are not running are reported as cancelled right
+	 * now, running ones keep their lane until they report.
+	 */
+	private void cancelLanes() {
+		for (Lane<T> lane : lanes) {
+			T task = lane.current;
+			if (task == null) {
+				continue;
+			}
+			State previous = task.getState();
+			task.cancel();
+			if (previous.equals(State.RUNNING)) {
+				// The task will call onDone or onCancel soon
+				ArtLog.i(TAG, "Cancel : waiting for task to finish...");
+			} else {
+				// Task is not running, it can be released right now
+				lane.current = null;
+				listener.afterTask(task, null);
+				notifyFinished(task, null, true);
+			}
+		}
+	}
+
+	private Lane<T> laneOf(AsyncRunnable<V> task) {
+		for (Lane<T> lane : lanes) {
+			if (lane.current == task) {
+				return lane;
+			}
+		}
+		return null;
+	}
+
+	private void quitLanes() {
+		for (Lane<T> lane : lanes) {
+			// do not process any more messages (even is there are some in pipe)
+			lane.dispatcher.quit();
+		}
+	}
+
+	private static Dispatcher[] toDispatchers(HandlerThread[] handlerThreads) {
+		Dispatcher[] dispatchers = new Dispatcher[handlerThreads.length];
+		for (int i = 0; i < handlerThreads.length; i++) {
+			dispatchers[i] = new HandlerDispatcher(handlerThreads[i]);
+		}
+		return dispatchers;
+	}
+
+	private static Dispatcher[] repeat(Dispatcher dispatcher, int laneCount) {
+		if (laneCount <= 0) {
+			throw new IllegalArgumentException("laneCount must be greater than 0");
+		}
+		Dispatcher[] dispatchers = new Dispatcher[laneCount];
+		for (int i = 0; i < laneCount; i++) {
+			dispatchers[i] = dispatcher;
+		}
+		return dispatchers;
+	}
+
+	private void tearDown() {
+		taskQueue.clear();
+		futures.cancelAll();
+		for (Lane<T> lane : lanes) {
+			lane.current = null;
+			DispatcherPool.releaseLease(lane.dispatcher);
+		}
+		mState.set(State.DONE);
+	}
+
+	private void notifyFinished(AsyncRunnable<V> task, V param, boolean cancelled) {
+		// Observer first : once the future is done, a journal has already recorded the task
+		ExecutionObserver o = observer;
+		if (o != null) {
+			o.onTaskFinished(task, cancelled);
+		}
+		futures.complete(task, param, cancelled);
+	}
+
+	private void notifyPaused(boolean paused) {
+		ExecutionObserver o = observer;
+		if (o == null) {
+			return;
+		} else if (paused) {
+			o.onPaused();
+		} else {
+			o.onResumed();
+		}
+	}
+
+	private void logd(String msg) {
+		if (DEBUG) {
+			ArtLog.d(TAG, msg);
+		}
+	}
+
+	private static class Lane<T> {
+		final Dispatcher dispatcher;
+		T current = null;
+
+		Lane(Dispatcher dispatcher) {
+			this.dispatcher = dispatcher;
+		}
+	}
+
+	private class DummyListener implements AsyncExecutorListener<V, T> {
+
+		@Override
+		public void beforeTask(T task) {
+			ArtLog.e(TAG, "No listener set");
+		}
+
+		@Override
+		public void afterTask(T task, V param) {
+			ArtLog.e(TAG, "No listener set");
+		}
+
+		@Override
+		public void onDone() {
+			ArtLog.e(TAG, "No listener set");
+		}
+
+		@Override
+		public void onCancelled() {
+			ArtLog.e(TAG, "No listener set");
+		}
+
+		@Override
+		public void onPaused() {
+			ArtLog.e(TAG, "No listener set");
+		}
+	}
+}
@@ -0,0 +1,432 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fr.coppernic.framework.art;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Task queue with priority levels, FIFO inside a level.
+ * <p>
+ * Levels go from {@link AsyncExecutor#PRIORITY_LOW} to {@link AsyncExecutor#PRIORITY_URGENT}.
+ * The level served by {@link #poll()} depends on the {@link Selection} :
+ * <ul>
+ * <li>{@link Selection#STRICT} : highest non empty level</li>
+ * <li>{@link Selection#WEIGHTED} : smooth weighted round robin, level n weighs 2^n</li>
+ * </ul>
+ * With aging, a non empty level skipped agingThreshold times in a row is served next, so that
+ * low priority tasks are never starved.
+ * <p>
+ * Adding is lock free. Polling is serialized by the executor, it takes an uncontended lock to
+ * keep selection counters consistent.
+ * <p>
+ * Queue can be bounded with {@link #setCapacity(int)}. A place is reserved with
+ * {@link #reserve()} or {@link #reserve(long, TimeUnit)} before
+ * {@link #addReserved(Object, int)}, {@link #offer(Object, int)} does both. Plain
+ * {@link #add(Object, int)} ignores capacity.
+ */
+public class PriorityTaskQueue<T> implements Iterable<T> {
+
+	/**
+	 * Number of priority levels
+	 */
+	public static final int LEVELS = AsyncExecutor.PRIORITY_URGENT + 1;
+	/**
+	 * Default number of skips before a level is served, 0 disables aging
+	 */
+	public static final int DEFAULT_AGING_THRESHOLD = 32;
+
+	private final List<ConcurrentLinkedQueue<T>> levels = new ArrayList<>(LEVELS);
+	private final int[] skipped = new int[LEVELS];
+	private final int[] credits = new int[LEVELS];
+	private volatile Selection selection = Selection.STRICT;
+	private volatile int agingThreshold = DEFAULT_AGING_THRESHOLD;
+	/* Number of tasks in queue plus reserved places */
+	private final AtomicInteger count = new AtomicInteger();
+	private volatile int capacity = Integer.MAX_VALUE;
+	private final ReentrantLock fullLock = new ReentrantLock();
+	private final Condition notFull = fullLock.newCondition();
+	private final AtomicInteger waiters = new AtomicInteger();
+
+	public PriorityTaskQueue() {
+		for (int i = 0; i < LEVELS; i++) {
+			levels.add(new ConcurrentLinkedQueue<T>());
+		}
+	}
+
+	/**
+	 * @param selection      Selection between levels
+	 * @param agingThreshold Number of times a non empty level can be skipped before it is
+	 *                       served, 0 to disable aging
+	 */
+	public void configure(Selection selection, int agingThreshold) {
+		if (agingThreshold < 0) {
+			throw new IllegalArgumentException("agingThreshold shall be positive");
+		}
+		this.selection = selection;
+		this.agingThreshold = agingThreshold;
+	}
+
+	/**
+	 * @param capacity Max number of tasks in queue, 0 for no limit
+	 */
+	public void setCapacity(int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("capacity shall be positive");
+		}
+		this.capacity = capacity == 0 ? Integer.MAX_VALUE : capacity;
+		signalNotFull();
+	}
+
+	/**
+	 * @return Max number of tasks in queue, Integer.MAX_VALUE if not bounded
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return Number of tasks that can be added before the queue is full
+	 */
+	public int remainingCapacity() {
+		return Math.max(0, capacity - count.get());
+	}
+
+	/**
+	 * Reserve a place for {@link #addReserved(Object, int)}, without blocking
+	 *
+	 * @return true if a place has been reserved, false if queue is full
+	 */
+	public boolean reserve() {
+		while (true) {
+			int c = count.get();
+			if (c >= capacity) {
+				return false;
+			} else if (count.compareAndSet(c, c + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Reserve a place for {@link #addReserved(Object, int)}, waiting for one if queue is full
+	 *
+	 * @param timeout Max time to wait
+	 * @param unit    Unit of timeout
+	 * @return true if a place has been reserved, false if timeout has elapsed
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public boolean reserve(long timeout, TimeUnit unit) throws InterruptedException {
+		if (reserve()) {
+			return true;
+		}
+		long nanos = unit.toNanos(timeout);
+		fullLock.lockInterruptibly();
+		waiters.incrementAndGet();
+		try {
+			while (!reserve()) {
+				if (nanos <= 0) {
+					return false;
+				}
+				nanos = notFull.awaitNanos(nanos);
+			}
+			return true;
+		} finally {
+			waiters.decrementAndGet();
+			fullLock.unlock();
+		}
+	}
+
+	/**
+	 * Add a task in a place reserved with {@link #reserve()}
+	 *
+	 * @param task     Task to add
+	 * @param priority Priority level
+	 * @throws IllegalArgumentException if priority is not a valid level, the place is released
+	 */
+	public void addReserved(T task, int priority) {
+		boolean added = false;
+		try {
+			checkPriority(priority);
+			levels.get(priority).add(task);
+			added = true;
+		} finally {
+			if (!added) {
+				released(1);
+			}
+		}
+	}
+
+	/**
+	 * Add a task if queue is not full
+	 *
+	 * @param task     Task to add
+	 * @param priority Priority level
+	 * @return false if queue is full
+	 */
+	public boolean offer(T task, int priority) {
+		checkPriority(priority);
+		if (!reserve()) {
+			return false;
+		}
+		addReserved(task, priority);
+		return true;
+	}
+
+	/**
+	 * Add a task with {@link AsyncExecutor#PRIORITY_NORMAL}
+	 *
+	 * @param task Task to add
+	 */
+	public void add(T task) {
+		add(task, AsyncExecutor.PRIORITY_NORMAL);
+	}
+
+	/**
+	 * @param task     Task to add
+	 * @param priority Priority level
+	 * @throws IllegalArgumentException if priority is not a valid level
+	 */
+	public void add(T task, int priority) {
+		checkPriority(priority);
+		count.incrementAndGet();
+		levels.get(priority).add(task);
+	}
+
+	/**
+	 * @param tasks Tasks to add with {@link AsyncExecutor#PRIORITY_NORMAL}, regardless of
+	 *              capacity
+	 */
+	public void addAll(Collection<T> tasks) {
+		count.addAndGet(tasks.size());
+		levels.get(AsyncExecutor.PRIORITY_NORMAL).addAll(tasks);
+	}
+
+	/**
+	 * @return Next task to execute, null if queue is empty
+	 */
+	public synchronized T poll() {
+		int level = selectLevel();
+		if (level < 0) {
+			return null;
+		}
+		T task = levels.get(level).poll();
+		if (task == null) {
+			// Emptied by clear() in the meantime
+			return poll();
+		}
+		released(1);
+		// Aging : every other non empty level has been skipped once more
+		for (int i = 0; i < LEVELS; i++) {
+			if (i == level || levels.get(i).isEmpty()) {
+				skipped[i] = 0;
+			} else {
+				skipped[i]++;
+			}
+		}
+		return task;
+	}
+
+	public boolean isEmpty() {
+		for (ConcurrentLinkedQueue<T> queue : levels) {
+			if (!queue.isEmpty()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public int size() {
+		int size = 0;
+		for (ConcurrentLinkedQueue<T> queue : levels) {
+			size += queue.size();
+		}
+		return size;
+	}
+
+	/**
+	 * Remove the oldest task of the lowest non empty level
+	 *
+	 * @return Removed task, null if queue is empty
+	 */
+	public T pollOldest() {
+		T task = takeOldestPlace(LEVELS - 1);
+		if (task != null) {
+			released(1);
+		}
+		return task;
+	}
+
+	/**
+	 * Remove the oldest task of the lowest non empty level, up to maxPriority, and keep its
+	 * place : it is reserved for the caller as with {@link #reserve()}.
+	 *
+	 * @param maxPriority Highest level a task can be removed from
+	 * @return Removed task, null if there is no task up to maxPriority
+	 */
+	public T takeOldestPlace(int maxPriority) {
+		checkPriority(maxPriority);
+		for (int i = 0; i <= maxPriority; i++) {
+			T task = levels.get(i).poll();
+			if (task != null) {
+				return task;
+			}
+		}
+		return null;
+	}
+
+	public void clear() {
+		int removed = 0;
+		for (ConcurrentLinkedQueue<T> queue : levels) {
+			while (queue.poll() != null) {
+				removed++;
+			}
+		}
+		released(removed);
+	}
+
+	/**
+	 * Iterate over tasks from highest to lowest level, FIFO inside a level
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		return new Iterator<T>() {
+			private int level = LEVELS - 1;
+			private Iterator<T> it = levels.get(level).iterator();
+
+			@Override
+			public boolean hasNext() {
+				while (!it.hasNext() && level > 0) {
+					it = levels.get(--level).iterator();
+				}
+				return it.hasNext();
+			}
+
+			@Override
+			public T next() {
+				hasNext();
+				return it.next();
+			}
+
+			@Override
+			public void remove() {
+				it.remove();
+				released(1);
+			}
+		};
+	}
+
+	private void checkPriority(int priority) {
+		if (priority < 0 || priority >= LEVELS) {
+			throw new IllegalArgumentException("Wrong priority : " + priority);
+		}
+	}
+
+	private void released(int places) {
+		if (places > 0) {
+			count.addAndGet(-places);
+			signalNotFull();
+		}
+	}
+
+	private void signalNotFull() {
+		if (waiters.get() > 0) {
+			fullLock.lock();
+			try {
+				notFull.signalAll();
+			} finally {
+				fullLock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * @return Level to serve, -1 if queue is empty
+	 */
+	private int selectLevel() {
+		int threshold = agingThreshold;
+		if (threshold > 0) {
+			for (int i = 0; i < LEVELS; i++) {
+				if (skipped[i] >= threshold && !levels.get(i).isEmpty()) {
+					return i;
+				}
+			}
+		}
+		return selection == Selection.STRICT ? selectStrict() : selectWeighted();
+	}
+
+	private int selectStrict() {
+		for (int i = LEVELS - 1; i >= 0; i--) {
+			if (!levels.get(i).isEmpty()) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Smooth weighted round robin between non empty levels
+	 */
+	private int selectWeighted() {
+		int total = 0;
+		int best = -1;
+		for (int i = LEVELS - 1; i >= 0; i--) {
+			if (levels.get(i).isEmpty()) {
+				credits[i] = 0;
+				continue;
+			}
+			int weight = 1 << i;
+			credits[i] += weight;
+			total += weight;
+			if (best < 0 || credits[i] > credits[best]) {
+				best = i;
+			}
+		}
+		if (best >= 0) {
+			credits[best] -= total;
+		}
+		return best;
+	}
+
+	/**
+	 * Selection between priority levels
+	 */
+	public enum Selection {
+		/**
+		 * Always serve the highest non empty level
+		 */
+		STRICT,
+		/**
+		 * Serve levels in proportion of their weight
+		 */
+		WEIGHTED,
+	}
+}
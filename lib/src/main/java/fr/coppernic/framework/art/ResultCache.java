@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fr.coppernic.framework.art;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of task results, see {@link Cacheable#getCacheKey()}.
+ * <p>
+ * Least recently used results are evicted when the cache is full, and results older than the
+ * time to live are never returned.
+ */
+public class ResultCache<V> {
+
+	private final int maxEntries;
+	private final long ttlNanos;
+	private final Map<Object, Entry<V>> entries;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * @param maxEntries Max number of results
+	 * @param ttl        Time to live of a result, 0 for no limit
+	 * @param unit       Unit of ttl
+	 */
+	public ResultCache(int maxEntries, long ttl, TimeUnit unit) {
+		if (maxEntries <= 0) {
+			throw new IllegalArgumentException("maxEntries must be greater than 0");
+		}
+		this.maxEntries = maxEntries;
+		ttlNanos = unit.toNanos(ttl);
+		entries = new LinkedHashMap<Object, ResultCache.Entry<V>>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Object, ResultCache.Entry<V>> eldest) {
+				if (size() > ResultCache.this.maxEntries) {
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Look for a result. Hit and miss counters are updated.
+	 *
+	 * @param key Cache key
+	 * @return Entry holding the result, null if there is no valid result for key
+	 */
+	public synchronized Entry<V> get(Object key) {
+		Entry<V> entry = entries.get(key);
+		if (entry != null && ttlNanos > 0 && System.nanoTime() - entry.createdAt > ttlNanos) {
+			entries.remove(key);
+			evictions.incrementAndGet();
+			entry = null;
+		}
+		if (entry == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		return entry;
+	}
+
+	/**
+	 * @param key   Cache key
+	 * @param value Result, may be null
+	 */
+	public synchronized void put(Object key, V value) {
+		entries.put(key, new Entry<>(value, System.nanoTime()));
+	}
+
+	/**
+	 * @param key Cache key of the result to forget
+	 */
+	public synchronized void invalidate(Object key) {
+		entries.remove(key);
+	}
+
+	/**
+	 * Forget all results. Statistics are kept.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * @return Number of results removed because cache was full or because they expired
+	 */
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return Ratio of lookups that found a result, 0 if there was no lookup
+	 */
+	public double getHitRate() {
+		long h = hits.get();
+		long total = h + misses.get();
+		return total == 0 ? 0 : (double) h / total;
+	}
+
+	/**
+	 * Cached result. Results may be null, so the entry tells if there is a result.
+	 */
+	public static final class Entry<V> {
+		private final V value;
+		private final long createdAt;
+
+		Entry(V value, long createdAt) {
+			this.value = value;
+			this.createdAt = createdAt;
+		}
+
+		public V getValue() {
+			return value;
+		}
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fr.coppernic.framework.art;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retry policy of an {@link AsyncRunnableTask}, see
+ * {@link AsyncRunnableTask#setRetryPolicy(RetryPolicy)}.
+ * <p>
+ * When a task calls onDone() with a result accepted by the {@link Condition}, the result is not
+ * reported : task is executed again after a delay growing exponentially, with some random
+ * jitter so that failing tasks do not retry all together. Only the result of the last attempt
+ * is reported.
+ */
+public class RetryPolicy<V> {
+
+	private final int maxAttempts;
+	private final long initialDelayMs;
+	private final Random random = new Random();
+	private double multiplier = 2;
+	private long maxDelayMs = Long.MAX_VALUE;
+	private double jitter = 0;
+	private Condition<V> condition = null;
+
+	/**
+	 * @param maxAttempts  Max number of executions, first one included
+	 * @param initialDelay Delay before first retry
+	 * @param unit         Unit of initialDelay
+	 */
+	public RetryPolicy(int maxAttempts, long initialDelay, TimeUnit unit) {
+		if (maxAttempts < 1) {
+			throw new IllegalArgumentException("maxAttempts must be at least 1");
+		}
+		this.maxAttempts = maxAttempts;
+		initialDelayMs = unit.toMillis(initialDelay);
+	}
+
+	/**
+	 * @param multiplier Factor applied to delay after each retry, 2 by default
+	 * @return this
+	 */
+	public RetryPolicy<V> setMultiplier(double multiplier) {
+		if (multiplier < 1) {
+			throw new IllegalArgumentException("multiplier must be at least 1");
+		}
+		this.multiplier = multiplier;
+		return this;
+	}
+
+	/**
+	 * @param maxDelay Max delay between two attempts
+	 * @param unit     Unit of maxDelay
+	 * @return this
+	 */
+	public RetryPolicy<V> setMaxDelay(long maxDelay, TimeUnit unit) {
+		maxDelayMs = unit.toMillis(maxDelay);
+		return this;
+	}
+
+	/**
+	 * @param jitter Part of the delay, between 0 and 1, that is randomly removed. 0 by default.
+	 * @return this
+	 */
+	public RetryPolicy<V> setJitter(double jitter) {
+		if (jitter < 0 || jitter > 1) {
+			throw new IllegalArgumentException("jitter must be between 0 and 1");
+		}
+		this.jitter = jitter;
+		return this;
+	}
+
+	/**
+	 * @param condition Results to retry. If not set, no result is retried.
+	 * @return this
+	 */
+	public RetryPolicy<V> setCondition(Condition<V> condition) {
+		this.condition = condition;
+		return this;
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	/**
+	 * @param retries Number of retries already done
+	 * @param result  Result of last attempt
+	 * @return true if task shall be executed again
+	 */
+	public boolean shouldRetry(int retries, V result) {
+		return retries + 1 < maxAttempts && condition != null && condition.shouldRetry(result);
+	}
+
+	/**
+	 * @param retries Number of retries already done
+	 * @return Delay in ms before next attempt
+	 */
+	public long getDelayMs(int retries) {
+		double delay = initialDelayMs * Math.pow(multiplier, retries);
+		delay = Math.min(delay, maxDelayMs);
+		delay -= delay * jitter * random.nextDouble();
+		return (long) delay;
+	}
+
+	/**
+	 * Tells which results are transient failures
+	 */
+	public interface Condition<V> {
+
+		/**
+		 * @param result Result given to onDone()
+		 * @return true if task shall be executed again
+		 */
+		boolean shouldRetry(V result);
+	}
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fr.coppernic.framework.art;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Task running several child tasks at the same time and completing with a quorum of their
+ * results.
+ * <p>
+ * Children are posted to the dispatcher given at construction, a pool or a thread-per-task
+ * dispatcher so that they really run concurrently. Each result is folded with the
+ * {@link Reducer}. As soon as quorum results are done, the task calls onDone() with the reduced
+ * value and the children still in flight are cancelled. If too many children are cancelled to
+ * reach the quorum, the task calls onCancel() with the value reduced so far.
+ * <p>
+ * {@link #reset()} resets the children as well, they shall all be {@link AsyncRunnableTask}.
+ */
+public class ScatterGatherTask<V> extends AsyncRunnableTask<V> {
+
+	/**
+	 * First result is enough
+	 */
+	public static final int FIRST = 1;
+	/**
+	 * All children shall be done
+	 */
+	public static final int ALL = 0;
+
+	private final List<AsyncRunnable<V>> children;
+	private final Dispatcher childDispatcher;
+	private final int quorum;
+	private final Reducer<V> reducer;
+	private final AsyncRunnableListener<V> gatherer = new Gatherer();
+	private final Object lock = new Object();
+	private final V initial;
+	private V reduced;
+	private int done = 0;
+	private int cancelled = 0;
+	private boolean launched = false;
+	private boolean finished = false;
+
+	/**
+	 * @param children        Tasks to execute concurrently
+	 * @param childDispatcher Dispatcher executing the children
+	 * @param quorum          Number of results needed, {@link #FIRST}, k or {@link #ALL}
+	 * @param initial         Initial value given to the reducer
+	 * @param reducer         Fold of the results
+	 */
+	public ScatterGatherTask(List<? extends AsyncRunnable<V>> children, Dispatcher childDispatcher,
+	                         int quorum, V initial, Reducer<V> reducer) {
+		if (children.isEmpty()) {
+			throw new IllegalArgumentException("No children");
+		} else if (quorum < 0 || quorum > children.size()) {
+			throw new IllegalArgumentException("Wrong quorum : " + quorum);
+		}
+		this.children = new ArrayList<>(children);
+		this.childDispatcher = childDispatcher;
+		this.quorum = quorum == ALL ? children.size() : quorum;
+		this.reducer = reducer;
+		this.initial = initial;
+		reduced = initial;
+	}
+
+	@Override
+	public String getName() {
+		return "ScatterGather";
+	}
+
+	/**
+	 * Post all children, then wait in PENDING state for their results
+	 */
+	@Override
+	public void execute() {
+		synchronized (lock) {
+			if (launched) {
+				return;
+			}
+			launched = true;
+		}
+		for (AsyncRunnable<V> child : children) {
+			child.setListener(gatherer);
+			if (!childDispatcher.post(child)) {
+				gatherer.onCancel(child, null);
+			}
+		}
+	}
+
+	/**
+	 * Cancel this task and all its children
+	 */
+	@Override
+	public void cancel() {
+		super.cancel();
+		synchronized (lock) {
+			finished = true;
+		}
+		cancelChildren();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * A cancelled straggler may still be inside its execute() : the task is not reset until it
+	 * returns, instead of blocking the thread of the caller.
+	 *
+	 * @throws IllegalStateException if a child cannot be reset or is still running
+	 */
+	@Override
+	public void reset() {
+		// Checked before anything is reset
+		for (AsyncRunnable<V> child : children) {
+			if (!(child instanceof AsyncRunnableTask)) {
+				throw new IllegalStateException("Cannot reset child " + child.getName());
+			} else if (((AsyncRunnableTask<?>) child).isRunElsewhere()) {
+				throw new IllegalStateException("Child " + child.getName() + " is still running");
+			}
+		}
+		super.reset();
+	}
+
+	/**
+	 * Reset the children and forget their results
+	 */
+	@Override
+	protected void onReset() {
+		for (AsyncRunnable<V> child : children) {
+			((AsyncRunnableTask<?>) child).reset();
+		}
+		synchronized (lock) {
+			reduced = initial;
+			done = 0;
+			cancelled = 0;
+			launched = false;
+			finished = false;
+		}
+	}
+
+	/**
+	 * @return Number of children done so far
+	 */
+	public int getDoneCount() {
+		synchronized (lock) {
+			return done;
+		}
+	}
+
+	private void cancelChildren() {
+		for (AsyncRunnable<V> child : children) {
+			State state = child.getState();
+			if (state != State.DONE && state != State.CANCELLED) {
+				child.cancel();
+			}
+		}
+	}
+
+	/**
+	 * Fold of the results of children
+	 */
+	public interface Reducer<V> {
+
+		/**
+		 * @param reduced Value reduced so far, initial value for the first result
+		 * @param result  Result of a child
+		 * @return New reduced value
+		 */
+		V reduce(V reduced, V result);
+	}
+
+	/**
+	 * Receives reports of children, from any thread
+	 */
+	private class Gatherer implements AsyncRunnableListener<V> {
+
+		@Override
+		public void onDone(AsyncRunnable<V> task, V param) {
+			V result;
+			synchronized (lock) {
+				if (finished) {
+					return;
+				}
+				reduced = reducer.reduce(reduced, param);
+				if (++done < quorum) {
+					return;
+				}
+				finished = true;
+				result = reduced;
+			}
+			// Stragglers are not needed anymore
+			cancelChildren();
+			ScatterGatherTask.this.onDone(result);
+		}
+
+		@Override
+		public void onCancel(AsyncRunnable<V> task, V param) {
+			V result;
+			synchronized (lock) {
+				if (finished) {
+					return;
+				}
+				cancelled++;
+				if (children.size() - cancelled >= quorum) {
+					return;
+				}
+				// Quorum cannot be reached anymore
+				finished = true;
+				result = reduced;
+			}
+			cancelChildren();
+			ScatterGatherTask.this.onCancel(result);
+		}
+	}
+}
@@ -0,0 +1,413 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fr.coppernic.framework.art;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Result of a task submitted with {@link AsyncExecutorService#submit(AsyncRunnable)}.
+ * <p>
+ * The future is done with the param of onDone(), or cancelled with the param of onCancel(). It
+ * fails with a {@link TimeoutException} when the watchdog of the task fires : get() throws an
+ * {@link ExecutionException}, callbacks and composed futures see it as cancelled.
+ * Callbacks and composition operators never block : they are called by the thread completing
+ * the future, usually a thread of the executor, or immediately if the future is already
+ * complete. They shall be short.
+ * <p>
+ * {@link #cancel(boolean)} only cancels the future, the task goes on. Dispose the executor to
+ * stop the task.
+ */
+public class TaskFuture<V> implements Future<V> {
+
+	private static final String TAG = "TaskFuture";
+
+	private List<Callback<? super V>> callbacks = new ArrayList<>(1);
+	private boolean done = false;
+	private boolean cancelled = false;
+	private Throwable failure = null;
+	private V value = null;
+
+	/**
+	 * @return Future done when all futures are done, with their results in the same order.
+	 * Cancelled as soon as one of them is cancelled.
+	 */
+	public static <V> TaskFuture<List<V>> allOf(final List<? extends TaskFuture<? extends V>> futures) {
+		final TaskFuture<List<V>> all = new TaskFuture<>();
+		if (futures.isEmpty()) {
+			all.complete(Collections.<V>emptyList());
+			return all;
+		}
+		final AtomicInteger remaining = new AtomicInteger(futures.size());
+		for (TaskFuture<? extends V> future : futures) {
+			future.addCallback(new Callback<Object>() {
+				@Override
+				public void onDone(Object result) {
+					if (remaining.decrementAndGet() == 0) {
+						List<V> results = new ArrayList<>(futures.size());
+						for (TaskFuture<? extends V> f : futures) {
+							results.add(f.getNow());
+						}
+						all.complete(results);
+					}
+				}
+
+				@Override
+				public void onCancelled(Object param) {
+					all.completeCancelled(null);
+				}
+			});
+		}
+		return all;
+	}
+
+	/**
+	 * @return Future done with the result of the first future done. Cancelled if all futures
+	 * are cancelled.
+	 */
+	public static <V> TaskFuture<V> anyOf(Collection<? extends TaskFuture<? extends V>> futures) {
+		final TaskFuture<V> any = new TaskFuture<>();
+		if (futures.isEmpty()) {
+			any.completeCancelled(null);
+			return any;
+		}
+		final AtomicInteger remaining = new AtomicInteger(futures.size());
+		for (TaskFuture<? extends V> future : futures) {
+			future.addCallback(new Callback<V>() {
+				@Override
+				public void onDone(V result) {
+					any.complete(result);
+				}
+
+				@Override
+				public void onCancelled(V param) {
+					if (remaining.decrementAndGet() == 0) {
+						any.completeCancelled(param);
+					}
+				}
+			});
+		}
+		return any;
+	}
+
+	/**
+	 * @return Future done with the combination of both results. Cancelled as soon as one of
+	 * them is cancelled.
+	 */
+	public static <A, B, R> TaskFuture<R> combine(final TaskFuture<A> a, final TaskFuture<B> b,
+	                                              final Combiner<? super A, ? super B, R> combiner) {
+		final TaskFuture<R> combined = new TaskFuture<>();
+		final AtomicInteger remaining = new AtomicInteger(2);
+		Callback<Object> callback = new Callback<Object>() {
+			@Override
+			public void onDone(Object result) {
+				if (remaining.decrementAndGet() == 0) {
+					R r;
+					try {
+						r = combiner.combine(a.getNow(), b.getNow());
+					} catch (RuntimeException e) {
+						ArtLog.e(TAG, "Exception in combiner", e);
+						combined.completeCancelled(null);
+						return;
+					}
+					combined.complete(r);
+				}
+			}
+
+			@Override
+			public void onCancelled(Object param) {
+				combined.completeCancelled(null);
+			}
+		};
+		a.addCallback(callback);
+		b.addCallback(callback);
+		return combined;
+	}
+
+	/**
+	 * Complete this future with a result
+	 *
+	 * @return false if it was already complete
+	 */
+	public boolean complete(V result) {
+		return finish(result, false, null);
+	}
+
+	/**
+	 * Cancel this future
+	 *
+	 * @param param Param of onCancel(), may be null
+	 * @return false if it was already complete
+	 */
+	public boolean completeCancelled(V param) {
+		return finish(param, true, null);
+	}
+
+	/**
+	 * Fail this future. Callbacks are called with {@link Callback#onCancelled(Object)}.
+	 *
+	 * @param cause Cause thrown by get(), wrapped in an {@link ExecutionException}
+	 * @param param Param given to callbacks, may be null
+	 * @return false if it was already complete
+	 */
+	public boolean completeExceptionally(Throwable cause, V param) {
+		return finish(param, false, cause);
+	}
+
+	/**
+	 * Call back when this future is complete. Callbacks are called in the order they are added,
+	 * an exception thrown by one of them is logged and does not prevent the others.
+	 *
+	 * @param callback Callback, called immediately if future is already complete
+	 */
+	public void addCallback(Callback<? super V> callback) {
+		synchronized (this) {
+			if (!done) {
+				callbacks.add(callback);
+				return;
+			}
+		}
+		deliver(callback);
+	}
+
+	/**
+	 * @return Future done with the transformed result. Cancelled if this one is cancelled or if
+	 * transform throws.
+	 */
+	public <R> TaskFuture<R> then(final Transform<? super V, ? extends R> transform) {
+		final TaskFuture<R> next = new TaskFuture<>();
+		addCallback(new Callback<V>() {
+			@Override
+			public void onDone(V result) {
+				R r;
+				try {
+					r = transform.apply(result);
+				} catch (RuntimeException e) {
+					ArtLog.e(TAG, "Exception in transform", e);
+					next.completeCancelled(null);
+					return;
+				}
+				next.complete(r);
+			}
+
+			@Override
+			public void onCancelled(V param) {
+				next.completeCancelled(null);
+			}
+		});
+		return next;
+	}
+
+	/**
+	 * Chain another asynchronous step, typically a task submitted to an executor.
+	 *
+	 * @return Future done with the result of the future returned by transform. Cancelled if
+	 * this one is cancelled, or if transform throws or returns null.
+	 */
+	public <R> TaskFuture<R> thenCompose(
+		final Transform<? super V, ? extends TaskFuture<R>> transform) {
+		final TaskFuture<R> next = new TaskFuture<>();
+		addCallback(new Callback<V>() {
+			@Override
+			public void onDone(V result) {
+				TaskFuture<R> step;
+				try {
+					step = transform.apply(result);
+				} catch (RuntimeException e) {
+					ArtLog.e(TAG, "Exception in transform", e);
+					next.completeCancelled(null);
+					return;
+				}
+				if (step == null) {
+					ArtLog.e(TAG, "Transform returned no future");
+					next.completeCancelled(null);
+					return;
+				}
+				step.addCallback(new Callback<R>() {
+					@Override
+					public void onDone(R result) {
+						next.complete(result);
+					}
+
+					@Override
+					public void onCancelled(R param) {
+						next.completeCancelled(param);
+					}
+				});
+			}
+
+			@Override
+			public void onCancelled(V param) {
+				next.completeCancelled(null);
+			}
+		});
+		return next;
+	}
+
+	/**
+	 * @return Result or param of onCancel() if complete, null otherwise
+	 */
+	public synchronized V getNow() {
+		return value;
+	}
+
+	/**
+	 * @return Cause of the failure, null if future has not failed
+	 */
+	public synchronized Throwable getFailure() {
+		return failure;
+	}
+
+	/* ------------------- Future ------------------- */
+
+	/**
+	 * Cancel this future. The task is not cancelled.
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return completeCancelled(null);
+	}
+
+	@Override
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	@Override
+	public synchronized boolean isDone() {
+		return done;
+	}
+
+	@Override
+	public synchronized V get() throws InterruptedException, ExecutionException {
+		while (!done) {
+			wait();
+		}
+		return result();
+	}
+
+	@Override
+	public synchronized V get(long timeout, TimeUnit unit)
+		throws InterruptedException, ExecutionException, TimeoutException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (!done) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				throw new TimeoutException();
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		return result();
+	}
+
+	/* ------------------- Internals ------------------- */
+
+	private V result() throws ExecutionException {
+		if (cancelled) {
+			throw new CancellationException();
+		} else if (failure != null) {
+			throw new ExecutionException(failure);
+		}
+		return value;
+	}
+
+	private boolean finish(V v, boolean c, Throwable f) {
+		List<Callback<? super V>> toCall;
+		synchronized (this) {
+			if (done) {
+				return false;
+			}
+			done = true;
+			cancelled = c;
+			failure = f;
+			value = v;
+			toCall = callbacks;
+			callbacks = null;
+			notifyAll();
+		}
+		for (Callback<? super V> callback : toCall) {
+			deliver(callback);
+		}
+		return true;
+	}
+
+	private void deliver(Callback<? super V> callback) {
+		V v;
+		boolean c;
+		synchronized (this) {
+			v = value;
+			c = cancelled || failure != null;
+		}
+		try {
+			if (c) {
+				callback.onCancelled(v);
+			} else {
+				callback.onDone(v);
+			}
+		} catch (RuntimeException e) {
+			// Called by the executor, it shall go on with other callbacks and tasks
+			ArtLog.e(TAG, "Exception in callback", e);
+		}
+	}
+
+	/**
+	 * Called when a future is complete
+	 */
+	public interface Callback<V> {
+
+		/**
+		 * @param result Param of onDone()
+		 */
+		void onDone(V result);
+
+		/**
+		 * @param param Param of onCancel(), null if future has been cancelled otherwise
+		 */
+		void onCancelled(V param);
+	}
+
+	/**
+	 * Transformation of a result
+	 */
+	public interface Transform<V, R> {
+
+		R apply(V value);
+	}
+
+	/**
+	 * Combination of two results
+	 */
+	public interface Combiner<A, B, R> {
+
+		R combine(A a, B b);
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fr.coppernic.framework.art;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Futures of the tasks submitted to an executor, completed when tasks finish.
+ */
+class TaskFutures<V> {
+
+	private final Map<AsyncRunnable<V>, TaskFuture<V>> futures = new IdentityHashMap<>();
+	/* Avoid locking for executors that are never given a future */
+	private volatile boolean used = false;
+
+	synchronized TaskFuture<V> register(AsyncRunnable<V> task) {
+		used = true;
+		TaskFuture<V> future = new TaskFuture<>();
+		futures.put(task, future);
+		return future;
+	}
+
+	/**
+	 * Complete the future of a task, if it has one. It fails if the task has been done by its
+	 * watchdog.
+	 */
+	void complete(AsyncRunnable<V> task, V param, boolean cancelled) {
+		if (!used) {
+			return;
+		}
+		TaskFuture<V> future;
+		synchronized (this) {
+			future = futures.remove(task);
+		}
+		if (future == null) {
+			return;
+		} else if (cancelled) {
+			future.completeCancelled(param);
+		} else if (task instanceof AsyncRunnableTask && ((AsyncRunnableTask<?>) task).isTimedOut()) {
+			future.completeExceptionally(new TimeoutException(task.getName() + " timed out"), param);
+		} else {
+			future.complete(param);
+		}
+	}
+
+	/**
+	 * Cancel futures of tasks that will never be executed
+	 */
+	void cancelAll() {
+		if (!used) {
+			return;
+		}
+		List<TaskFuture<V>> remaining;
+		synchronized (this) {
+			remaining = new ArrayList<>(futures.values());
+			futures.clear();
+		}
+		for (TaskFuture<V> future : remaining) {
+			future.completeCancelled(null);
+		}
+	}
+}
@@ -0,0 +1,564 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fr.coppernic.framework.art;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import fr.coppernic.framework.io.Disposable;
+
+/**
+ * Write-ahead journal of the tasks of an executor, so that unfinished tasks survive a crash.
+ * <p>
+ * Set the journal as {@link ExecutionObserver} of the executor. Every task accepted by the
+ * {@link Codec} is recorded when it is queued, started, done or cancelled, and when it returns
+ * from an execution in PENDING state so that its progress is kept. After a restart,
+ * {@link #replay(AsyncExecutor)} adds the unfinished tasks to the new executor.
+ * <p>
+ * Records are appended to a memory-mapped file : appending does not call the file system, and
+ * records are in the page cache as soon as written, so they survive the death of the process.
+ * They are forced to the storage by group commits, at most once per commit delay, on a timer
+ * thread shared by journals only : a slow storage does not delay watchdogs. Each record has a
+ * checksum, a torn record at the end of the journal is ignored.
+ * <p>
+ * When no task is left, the journal starts again from the beginning of the file. When the file
+ * is full and unfinished tasks take less than half of it, they are compacted into a new file
+ * replacing the journal, instead of growing it.
+ */
+public class TaskJournal<T extends AsyncRunnable<?>> implements ExecutionObserver, Disposable {
+
+	private static final String TAG = "TaskJournal";
+	private static final int MAGIC = 0x4A524E4C;
+	/* Magic, generation */
+	private static final int HEADER_SIZE = 4 + 4;
+	/* Type, generation, id, length ... checksum */
+	private static final int RECORD_OVERHEAD = 1 + 4 + 8 + 4 + 4;
+	private static final int DEFAULT_SIZE = 1 << 20;
+	private static final long DEFAULT_COMMIT_DELAY_MS = 10;
+
+	private static final byte QUEUED = 1;
+	private static final byte STARTED = 2;
+	private static final byte CHECKPOINT = 3;
+	private static final byte FINISHED = 4;
+
+	private final Codec<T> codec;
+	private final File path;
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private final CRC32 crc = new CRC32();
+	/* Ids of journaled tasks */
+	private final Map<T, Long> ids = new IdentityHashMap<>();
+	/* Tasks found in the file at opening, not finished */
+	private final Map<Long, byte[]> unfinished = new LinkedHashMap<>();
+	/* Last data recorded for each task not finished, in queuing order, for compaction */
+	private final Map<Long, byte[]> live = new LinkedHashMap<>();
+	/* Size of the records of live, once compacted */
+	private long liveSize = 0;
+	private MappedByteBuffer buffer;
+	private int generation;
+	private long nextId = 1;
+	private long commitDelayMs = DEFAULT_COMMIT_DELAY_MS;
+	private HashedWheelTimer.TimerTask commitTask = null;
+	private volatile ExecutionObserver next = null;
+
+	/**
+	 * @param path  Journal file, created if needed
+	 * @param codec Serialization of tasks
+	 * @throws IOException if file cannot be opened or mapped
+	 */
+	public TaskJournal(File path, Codec<T> codec) throws IOException {
+		this(path, codec, DEFAULT_SIZE);
+	}
+
+	/**
+	 * @param path        Journal file, created if needed
+	 * @param codec       Serialization of tasks
+	 * @param initialSize Initial size of the mapping, doubled when full
+	 * @throws IOException if file cannot be opened or mapped
+	 */
+	public TaskJournal(File path, Codec<T> codec, int initialSize) throws IOException {
+		if (initialSize <= HEADER_SIZE) {
+			throw new IllegalArgumentException("initialSize too small : " + initialSize);
+		}
+		this.codec = codec;
+		this.path = path;
+		file = new RandomAccessFile(path, "rw");
+		channel = file.getChannel();
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+		                     Math.max(initialSize, channel.size()));
+		if (buffer.getInt(0) == MAGIC) {
+			generation = buffer.getInt(4);
+			scan();
+		} else {
+			generation = 1;
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(4, generation);
+			buffer.position(HEADER_SIZE);
+		}
+	}
+
+	/**
+	 * Add tasks left unfinished by the previous process to an executor. To be called before
+	 * the executor is observed by this journal.
+	 *
+	 * @param executor Executor
+	 * @return Number of tasks added
+	 */
+	public int replay(AsyncExecutor<?, T> executor) {
+		List<T> tasks = recover();
+		for (T task : tasks) {
+			executor.add(task);
+		}
+		return tasks.size();
+	}
+
+	/**
+	 * Decode tasks left unfinished by the previous process, in queuing order. Each one is
+	 * decoded from its last checkpoint. They are still journaled : they are finished when
+	 * executed again.
+	 *
+	 * @return Unfinished tasks, empty when called again
+	 */
+	public synchronized List<T> recover() {
+		List<T> tasks = new ArrayList<>(unfinished.size());
+		for (Iterator<Map.Entry<Long, byte[]>> it = unfinished.entrySet().iterator();
+		     it.hasNext(); ) {
+			Map.Entry<Long, byte[]> entry = it.next();
+			it.remove();
+			T task;
+			try {
+				task = codec.decode(entry.getValue());
+			} catch (RuntimeException e) {
+				ArtLog.e(TAG, "Cannot decode task " + entry.getKey(), e);
+				append(FINISHED, entry.getKey(), null);
+				forget(entry.getKey());
+				continue;
+			}
+			ids.put(task, entry.getKey());
+			tasks.add(task);
+		}
+		return tasks;
+	}
+
+	/**
+	 * @param delay Max delay between the record of an event and its commit to the storage
+	 * @param unit  Unit of delay
+	 */
+	public synchronized void setCommitDelay(long delay, TimeUnit unit) {
+		commitDelayMs = unit.toMillis(delay);
+	}
+
+	/**
+	 * @param next Observer receiving all events after the journal, null for none
+	 */
+	public void setNext(ExecutionObserver next) {
+		this.next = next;
+	}
+
+	/**
+	 * Force all records to the storage now
+	 */
+	public void commit() {
+		MappedByteBuffer b;
+		synchronized (this) {
+			if (commitTask != null) {
+				commitTask.cancel();
+				commitTask = null;
+			}
+			b = buffer;
+		}
+		// Other threads keep appending meanwhile
+		if (b != null) {
+			try {
+				b.force();
+			} catch (RuntimeException e) {
+				// Unmapped by a compaction in the meantime, new file is already forced
+				ArtLog.w(TAG, "Cannot commit journal : " + e.getMessage());
+			}
+		}
+	}
+
+	/* ------------------- Disposable ------------------- */
+
+	/**
+	 * Commit and close the journal. Events are not recorded anymore.
+	 */
+	@Override
+	public void dispose() {
+		commit();
+		synchronized (this) {
+			buffer = null;
+			try {
+				file.close();
+			} catch (IOException e) {
+				ArtLog.e(TAG, "Cannot close journal", e);
+			}
+		}
+	}
+
+	/* ------------------- ExecutionObserver ------------------- */
+
+	@Override
+	public void onTaskQueued(AsyncRunnable<?> task) {
+		@SuppressWarnings("unchecked")
+		T t = (T) task;
+		byte[] data = codec.encode(t);
+		if (data != null) {
+			synchronized (this) {
+				if (!ids.containsKey(t)) {
+					long id = nextId++;
+					ids.put(t, id);
+					append(QUEUED, id, data);
+					remember(id, data);
+				}
+			}
+		}
+		ExecutionObserver o = next;
+		if (o != null) {
+			o.onTaskQueued(task);
+		}
+	}
+
+	@Override
+	public void onTaskStarted(AsyncRunnable<?> task) {
+		synchronized (this) {
+			Long id = ids.get(task);
+			if (id != null) {
+				append(STARTED, id, null);
+			}
+		}
+		ExecutionObserver o = next;
+		if (o != null) {
+			o.onTaskStarted(task);
+		}
+	}
+
+	@Override
+	public void onTaskFinished(AsyncRunnable<?> task, boolean cancelled) {
+		synchronized (this) {
+			Long id = ids.remove(task);
+			if (id != null) {
+				append(FINISHED, id, null);
+				forget(id);
+				if (ids.isEmpty() && unfinished.isEmpty()) {
+					reset();
+				}
+			}
+		}
+		ExecutionObserver o = next;
+		if (o != null) {
+			o.onTaskFinished(task, cancelled);
+		}
+	}
+
+	@Override
+	public void onTaskRunStarted(AsyncRunnable<?> task) {
+		ExecutionObserver o = next;
+		if (o != null) {
+			o.onTaskRunStarted(task);
+		}
+	}
+
+	/**
+	 * Task waiting for more data : record its progress
+	 */
+	@Override
+	public void onTaskRunEnded(AsyncRunnable<?> task) {
+		if (task.getState() == AsyncRunnable.State.PENDING) {
+			@SuppressWarnings("unchecked")
+			T t = (T) task;
+			boolean journaled;
+			synchronized (this) {
+				journaled = ids.containsKey(t);
+			}
+			byte[] data = journaled ? codec.encode(t) : null;
+			if (data != null) {
+				synchronized (this) {
+					Long id = ids.get(t);
+					if (id != null) {
+						append(CHECKPOINT, id, data);
+						remember(id, data);
+					}
+				}
+			}
+		}
+		ExecutionObserver o = next;
+		if (o != null) {
+			o.onTaskRunEnded(task);
+		}
+	}
+
+	@Override
+	public void onPaused() {
+		ExecutionObserver o = next;
+		if (o != null) {
+			o.onPaused();
+		}
+	}
+
+	@Override
+	public void onResumed() {
+		ExecutionObserver o = next;
+		if (o != null) {
+			o.onResumed();
+		}
+	}
+
+	/* ------------------- Internals ------------------- */
+
+	/**
+	 * Read valid records of current generation, and keep unfinished tasks
+	 */
+	private void scan() {
+		int position = HEADER_SIZE;
+		int limit = buffer.capacity();
+		while (position + RECORD_OVERHEAD <= limit) {
+			byte type = buffer.get(position);
+			int length = buffer.getInt(position + 13);
+			if (type < QUEUED || type > FINISHED || buffer.getInt(position + 1) != generation
+				|| length < 0 || length > limit - position - RECORD_OVERHEAD) {
+				break;
+			}
+			long id = buffer.getLong(position + 5);
+			byte[] data = new byte[length];
+			buffer.position(position + 17);
+			buffer.get(data);
+			if (buffer.getInt(position + 17 + length) != checksum(type, id, data)) {
+				// Torn record
+				break;
+			}
+			if (type == QUEUED || type == CHECKPOINT) {
+				unfinished.put(id, data);
+				remember(id, data);
+			} else if (type == FINISHED) {
+				unfinished.remove(id);
+				forget(id);
+			}
+			nextId = Math.max(nextId, id + 1);
+			position += RECORD_OVERHEAD + length;
+		}
+		buffer.position(position);
+		ArtLog.i(TAG, unfinished.size() + " unfinished tasks in journal");
+	}
+
+	private void append(byte type, long id, byte[] data) {
+		if (buffer == null) {
+			// Disposed
+			return;
+		}
+		int length = data == null ? 0 : data.length;
+		if (buffer.remaining() < RECORD_OVERHEAD + length && !compact(RECORD_OVERHEAD + length)) {
+			grow(RECORD_OVERHEAD + length);
+		}
+		write(type, id, data);
+		scheduleCommit();
+	}
+
+	/**
+	 * Write a record at the position of the buffer, there shall be room for it
+	 */
+	private void write(byte type, long id, byte[] data) {
+		int length = data == null ? 0 : data.length;
+		int start = buffer.position();
+		// Type is written last, so that a partial record is never valid
+		buffer.position(start + 1);
+		buffer.putInt(generation);
+		buffer.putLong(id);
+		buffer.putInt(length);
+		if (data != null) {
+			buffer.put(data);
+		}
+		buffer.putInt(checksum(type, id, data));
+		buffer.put(start, type);
+	}
+
+	private void remember(long id, byte[] data) {
+		byte[] previous = live.put(id, data);
+		if (previous == null) {
+			liveSize += RECORD_OVERHEAD + data.length;
+		} else {
+			liveSize += data.length - previous.length;
+		}
+	}
+
+	private void forget(long id) {
+		byte[] previous = live.remove(id);
+		if (previous != null) {
+			liveSize -= RECORD_OVERHEAD + previous.length;
+		}
+	}
+
+	/**
+	 * Rewrite unfinished tasks into a new generation, in a new file of the same size replacing
+	 * the journal. The journal is valid on the storage at any time : the new file is forced
+	 * before it replaces the current one.
+	 *
+	 * @param needed Size of the record to append after compaction
+	 * @return false if unfinished tasks take more than half of the file, or if it cannot be
+	 * replaced : journal has to grow instead
+	 */
+	private boolean compact(int needed) {
+		long size = buffer.capacity();
+		if (HEADER_SIZE + liveSize + needed > size / 2) {
+			return false;
+		}
+		File tmp = new File(path.getPath() + ".compact");
+		RandomAccessFile newFile = null;
+		MappedByteBuffer previous = buffer;
+		int previousGeneration = generation;
+		try {
+			newFile = new RandomAccessFile(tmp, "rw");
+			newFile.setLength(0);
+			buffer = newFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+			generation++;
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(4, generation);
+			buffer.position(HEADER_SIZE);
+			for (Map.Entry<Long, byte[]> entry : live.entrySet()) {
+				write(QUEUED, entry.getKey(), entry.getValue());
+			}
+			buffer.force();
+			if (!tmp.renameTo(path)) {
+				throw new IOException("Cannot rename " + tmp);
+			}
+		} catch (IOException e) {
+			ArtLog.e(TAG, "Cannot compact journal", e);
+			buffer = previous;
+			generation = previousGeneration;
+			close(newFile);
+			//noinspection ResultOfMethodCallIgnored
+			tmp.delete();
+			return false;
+		}
+		close(file);
+		file = newFile;
+		channel = newFile.getChannel();
+		return true;
+	}
+
+	private static void close(RandomAccessFile f) {
+		if (f == null) {
+			return;
+		}
+		try {
+			f.close();
+		} catch (IOException e) {
+			ArtLog.e(TAG, "Cannot close journal", e);
+		}
+	}
+
+	private int checksum(byte type, long id, byte[] data) {
+		crc.reset();
+		crc.update(type);
+		for (int shift = 24; shift >= 0; shift -= 8) {
+			crc.update(generation >>> shift);
+		}
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			crc.update((int) (id >>> shift));
+		}
+		if (data != null) {
+			crc.update(data, 0, data.length);
+		}
+		return (int) crc.getValue();
+	}
+
+	private void grow(int needed) {
+		int position = buffer.position();
+		long size = buffer.capacity();
+		while (size - position < needed) {
+			size *= 2;
+		}
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalStateException("Journal full, too many unfinished tasks");
+		}
+		try {
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot grow journal", e);
+		}
+		buffer.position(position);
+	}
+
+	/**
+	 * No task left : start a new generation at the beginning of the file. Records of the
+	 * previous one are not valid anymore.
+	 */
+	private void reset() {
+		generation++;
+		buffer.putInt(4, generation);
+		buffer.position(HEADER_SIZE);
+		// Mark the end of the new generation
+		buffer.put(HEADER_SIZE, (byte) 0);
+	}
+
+	private void scheduleCommit() {
+		if (commitTask != null) {
+			return;
+		}
+		commitTask = new HashedWheelTimer.TimerTask() {
+			@Override
+			public void run() {
+				commit();
+			}
+		};
+		CommitTimerHolder.INSTANCE.schedule(commitTask, commitDelayMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Timer of group commits, apart from the default timer : forcing a file may block
+	 */
+	private static final class CommitTimerHolder {
+		static final HashedWheelTimer INSTANCE =
+			new HashedWheelTimer(TAG, 10, TimeUnit.MILLISECONDS, 64);
+	}
+
+	/**
+	 * Serialization of tasks
+	 */
+	public interface Codec<T> {
+
+		/**
+		 * @param task Task to serialize, with its progress
+		 * @return Serialized task, null if task shall not be journaled
+		 */
+		byte[] encode(T task);
+
+		/**
+		 * @param data Serialized task
+		 * @return New task
+		 */
+		T decode(byte[] data);
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fr.coppernic.framework.art;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+
+/**
+ * Pool of reusable tasks, for periodic suites executing the same kind of task again and again.
+ * <p>
+ * Tasks are reset when recycled, see {@link AsyncRunnableTask#reset()}. Once the pool holds as
+ * many tasks as the suite needs at the same time, obtaining a task does not allocate anymore.
+ * This only saves the tasks : executing them still allocates, for instance the watchdog
+ * timeouts, the futures of {@link AsyncExecutorService#submit(AsyncRunnable)} and the queue
+ * nodes of an {@link ExecutorDispatcher}.
+ */
+public class TaskPool<T extends AsyncRunnableTask<?>> {
+
+	private final Factory<T> factory;
+	private final int maxSize;
+	private final ArrayDeque<T> free;
+	/* Tasks of free, to reject a task recycled twice. put() does not allocate */
+	private final IdentityHashMap<T, Boolean> pooled;
+
+	/**
+	 * @param factory Creates tasks when the pool is empty
+	 * @param maxSize Max number of tasks kept, extra recycled tasks are left to the GC
+	 */
+	public TaskPool(Factory<T> factory, int maxSize) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("maxSize must be greater than 0");
+		}
+		this.factory = factory;
+		this.maxSize = maxSize;
+		free = new ArrayDeque<>(maxSize);
+		pooled = new IdentityHashMap<>(maxSize);
+	}
+
+	/**
+	 * @return Task ready to be executed, taken from the pool or created
+	 */
+	public T obtain() {
+		T task;
+		synchronized (this) {
+			task = free.poll();
+			if (task != null) {
+				pooled.remove(task);
+			}
+		}
+		return task == null ? factory.create() : task;
+	}
+
+	/**
+	 * Give a task back to the pool, once it has been reported. It shall not be used anymore by
+	 * the caller.
+	 *
+	 * @param task Done or cancelled task
+	 * @throws IllegalStateException if task is executing or waiting, or already in the pool
+	 */
+	public void recycle(T task) {
+		// No-op on a task already in the pool, which is detected below
+		task.reset();
+		synchronized (this) {
+			if (pooled.containsKey(task)) {
+				throw new IllegalStateException("Task already recycled");
+			} else if (free.size() < maxSize) {
+				free.push(task);
+				pooled.put(task, Boolean.TRUE);
+			}
+		}
+	}
+
+	/**
+	 * @return Number of tasks ready in the pool
+	 */
+	public synchronized int size() {
+		return free.size();
+	}
+
+	/**
+	 * Creates the tasks of a pool
+	 */
+	public interface Factory<T> {
+
+		T create();
+	}
+}
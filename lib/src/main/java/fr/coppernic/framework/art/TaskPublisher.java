@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fr.coppernic.framework.art;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reactive Streams {@link Publisher} of the results of tasks executed by a streaming
+ * {@link AsyncExecutorService}.
+ * <p>
+ * Tasks added to the publisher are kept in a backlog and given to the executor only when the
+ * subscriber has requested results for them : a slow subscriber slows down execution instead
+ * of having results piling up. Results are emitted in completion order.
+ * <p>
+ * Only one subscriber is allowed. The stream completes once {@link #close()} has been called and
+ * all results are emitted. It fails if a task is cancelled or its result is null. When the
+ * subscription is cancelled, tasks not released yet are dropped and the executor is closed.
+ */
+public class TaskPublisher<V, T extends AsyncRunnable<V>> implements Publisher<V> {
+
+	private static final Subscription EMPTY = new Subscription() {
+		@Override
+		public void request(long n) {
+		}
+
+		@Override
+		public void cancel() {
+		}
+	};
+
+	private final AsyncExecutorService<V, T> executor;
+	private final ConcurrentLinkedQueue<T> backlog = new ConcurrentLinkedQueue<>();
+	private final ConcurrentLinkedQueue<TaskFuture<V>> results = new ConcurrentLinkedQueue<>();
+	private final AtomicReference<Subscriber<? super V>> subscriber = new AtomicReference<>();
+	/* Tasks that can still be released, Long.MAX_VALUE for no limit */
+	private final AtomicLong credit = new AtomicLong();
+	/* Serializes signals to the subscriber, see drain() */
+	private final AtomicInteger wip = new AtomicInteger();
+	private volatile boolean closed = false;
+	private volatile boolean cancelled = false;
+	private volatile Throwable error = null;
+	/* Only accessed in drain() */
+	private int outstanding = 0;
+	private boolean terminated = false;
+
+	/**
+	 * @param executor Executor, not executed yet. It is put in streaming mode and executed on
+	 *                 subscription.
+	 */
+	public TaskPublisher(AsyncExecutorService<V, T> executor) {
+		this.executor = executor;
+		executor.setStreaming(true);
+	}
+
+	/**
+	 * Add a task to the backlog. It is executed when there is demand for its result.
+	 *
+	 * @param task Task to execute
+	 * @throws IllegalStateException if publisher is closed
+	 */
+	public void add(T task) {
+		if (closed) {
+			throw new IllegalStateException("Publisher is closed");
+		}
+		backlog.add(task);
+		drain();
+	}
+
+	/**
+	 * No more tasks will be added. Subscriber is completed after the last result.
+	 */
+	public void close() {
+		closed = true;
+		drain();
+	}
+
+	/* ------------------- Publisher ------------------- */
+
+	@Override
+	public void subscribe(Subscriber<? super V> s) {
+		if (s == null) {
+			throw new NullPointerException("Subscriber is null");
+		} else if (!subscriber.compareAndSet(null, s)) {
+			s.onSubscribe(EMPTY);
+			s.onError(new IllegalStateException("Only one subscriber is allowed"));
+			return;
+		}
+		executor.execute();
+		s.onSubscribe(new TaskSubscription());
+		drain();
+	}
+
+	/* ------------------- Internals ------------------- */
+
+	/**
+	 * Release tasks and emit results. Only one thread drains at a time, others just tell it to
+	 * loop once more.
+	 */
+	private void drain() {
+		if (wip.getAndIncrement() != 0) {
+			return;
+		}
+		int missed = 1;
+		do {
+			Subscriber<? super V> s = subscriber.get();
+			if (s != null && !terminated) {
+				drain(s);
+			}
+			missed = wip.addAndGet(-missed);
+		} while (missed != 0);
+	}
+
+	private void drain(Subscriber<? super V> s) {
+		if (error != null) {
+			terminate();
+			s.onError(error);
+			return;
+		} else if (cancelled) {
+			terminate();
+			return;
+		}
+		release();
+		TaskFuture<V> result;
+		while ((result = results.poll()) != null) {
+			outstanding--;
+			V value = result.getNow();
+			if (result.isCancelled()) {
+				terminate();
+				s.onError(new CancellationException("Task has been cancelled"));
+				return;
+			} else if (value == null) {
+				terminate();
+				s.onError(new NullPointerException("Task result is null"));
+				return;
+			}
+			s.onNext(value);
+		}
+		if (closed && outstanding == 0 && backlog.isEmpty()) {
+			terminate();
+			s.onComplete();
+		}
+	}
+
+	/**
+	 * Give as many tasks to the executor as the subscriber can take
+	 */
+	private void release() {
+		while (credit.get() > 0) {
+			final T task = backlog.poll();
+			if (task == null) {
+				return;
+			}
+			if (credit.get() != Long.MAX_VALUE) {
+				credit.decrementAndGet();
+			}
+			outstanding++;
+			final TaskFuture<V> future;
+			try {
+				future = executor.submit(task);
+			} catch (RuntimeException e) {
+				error = e;
+				return;
+			}
+			future.addCallback(new TaskFuture.Callback<V>() {
+				@Override
+				public void onDone(V result) {
+					results.add(future);
+					drain();
+				}
+
+				@Override
+				public void onCancelled(V param) {
+					results.add(future);
+					drain();
+				}
+			});
+		}
+	}
+
+	private void terminate() {
+		terminated = true;
+		backlog.clear();
+		results.clear();
+		// Tasks already released are executed, their results are dropped
+		executor.close();
+	}
+
+	private class TaskSubscription implements Subscription {
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				error = new IllegalArgumentException("Request shall be positive, rule 3.9 : " + n);
+			} else {
+				while (true) {
+					long current = credit.get();
+					long next = current + n;
+					if (next < 0) {
+						// Overflow : no limit anymore
+						next = Long.MAX_VALUE;
+					}
+					if (current == Long.MAX_VALUE || credit.compareAndSet(current, next)) {
+						break;
+					}
+				}
+			}
+			drain();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			drain();
+		}
+	}
+}
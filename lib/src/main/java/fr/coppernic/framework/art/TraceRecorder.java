@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fr.coppernic.framework.art;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Records the timeline of a suite in trace-event format, to be opened with chrome://tracing or
+ * Perfetto.
+ * <p>
+ * Set it with setObserver() of the executor, in a {@link CompositeObserver} to use it along
+ * with other observers. Executions of tasks are spans on the track of the thread running
+ * them. Queued and pending phases are async spans, one row per task. Pauses and resumes of
+ * the executor are instant events.
+ * <p>
+ * Events are stored in a buffer allocated once, recording does not allocate nor lock. When
+ * the buffer is full, new events are dropped, see {@link #getDroppedCount()}.
+ */
+public class TraceRecorder implements ExecutionObserver {
+
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+
+	private static final byte QUEUED_BEGIN = 0;
+	private static final byte QUEUED_END = 1;
+	private static final byte RUN_BEGIN = 2;
+	private static final byte RUN_END = 3;
+	private static final byte PENDING_BEGIN = 4;
+	private static final byte PENDING_END = 5;
+	private static final byte DONE = 6;
+	private static final byte CANCELLED = 7;
+	private static final byte PAUSED = 8;
+	private static final byte RESUMED = 9;
+
+	private final int capacity;
+	private final long[] timestamps;
+	private final byte[] kinds;
+	private final int[] ids;
+	private final Thread[] threads;
+	/* Written last with lazySet, a non null name publishes the event */
+	private final AtomicReferenceArray<String> names;
+	private final AtomicInteger next = new AtomicInteger();
+	private final long origin = System.nanoTime();
+
+	public TraceRecorder() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity Max number of events
+	 */
+	public TraceRecorder(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be greater than 0");
+		}
+		this.capacity = capacity;
+		timestamps = new long[capacity];
+		kinds = new byte[capacity];
+		ids = new int[capacity];
+		threads = new Thread[capacity];
+		names = new AtomicReferenceArray<>(capacity);
+	}
+
+	/* ------------------- ExecutionObserver ------------------- */
+
+	@Override
+	public void onTaskQueued(AsyncRunnable<?> task) {
+		record(QUEUED_BEGIN, System.nanoTime(), task);
+	}
+
+	@Override
+	public void onTaskStarted(AsyncRunnable<?> task) {
+		record(QUEUED_END, System.nanoTime(), task);
+	}
+
+	@Override
+	public void onTaskFinished(AsyncRunnable<?> task, boolean cancelled) {
+		long now = System.nanoTime();
+		if (task instanceof AsyncRunnableTask) {
+			long since = ((AsyncRunnableTask<?>) task).getReportPendingSince();
+			if (since != 0) {
+				recordPending(since, now, task);
+			}
+		}
+		record(cancelled ? CANCELLED : DONE, now, task);
+	}
+
+	@Override
+	public void onTaskRunStarted(AsyncRunnable<?> task) {
+		long now = System.nanoTime();
+		AsyncRunnableTask<?> t = (AsyncRunnableTask<?>) task;
+		long since = t.getPendingSince();
+		if (since != 0) {
+			// Executed again : woken up, retried or with executeCurrent()
+			recordPending(since, now, task);
+		}
+		record(RUN_BEGIN, now, task);
+	}
+
+	@Override
+	public void onTaskRunEnded(AsyncRunnable<?> task) {
+		record(RUN_END, System.nanoTime(), task);
+	}
+
+	@Override
+	public void onPaused() {
+		record(PAUSED, System.nanoTime(), null);
+	}
+
+	@Override
+	public void onResumed() {
+		record(RESUMED, System.nanoTime(), null);
+	}
+
+	/* ------------------- Export ------------------- */
+
+	/**
+	 * @return Number of events that did not fit in the buffer
+	 */
+	public int getDroppedCount() {
+		return Math.max(0, next.get() - capacity);
+	}
+
+	/**
+	 * Write recorded events as trace-event JSON. Events still being recorded may be missing.
+	 *
+	 * @param writer Destination, not closed
+	 * @throws IOException if writer fails
+	 */
+	public void writeTo(Writer writer) throws IOException {
+		int count = Math.min(next.get(), capacity);
+		Map<Thread, Boolean> seen = new IdentityHashMap<>();
+		writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+		boolean first = true;
+		for (int i = 0; i < count; i++) {
+			String name = names.get(i);
+			if (name == null) {
+				continue;
+			}
+			Thread thread = threads[i];
+			if (seen.put(thread, Boolean.TRUE) == null) {
+				first = separate(writer, first);
+				writer.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":");
+				writer.write(Long.toString(thread.getId()));
+				writer.write(",\"args\":{\"name\":");
+				writeString(writer, thread.getName());
+				writer.write("}}");
+			}
+			first = separate(writer, first);
+			writeEvent(writer, i, name, thread);
+		}
+		writer.write("]}");
+		writer.flush();
+	}
+
+	/* ------------------- Internals ------------------- */
+
+	private void recordPending(long since, long now, AsyncRunnable<?> task) {
+		record(PENDING_BEGIN, since, task);
+		record(PENDING_END, now, task);
+	}
+
+	private void record(byte kind, long timestamp, AsyncRunnable<?> task) {
+		int i = next.getAndIncrement();
+		if (i >= capacity) {
+			return;
+		}
+		timestamps[i] = timestamp;
+		kinds[i] = kind;
+		ids[i] = System.identityHashCode(task);
+		threads[i] = Thread.currentThread();
+		names.lazySet(i, task == null ? "executor" : String.valueOf(task.getName()));
+	}
+
+	private void writeEvent(Writer writer, int i, String name, Thread thread) throws IOException {
+		String ph;
+		String label = name;
+		boolean async = false;
+		switch (kinds[i]) {
+			case QUEUED_BEGIN:
+				ph = "b";
+				label = "queued";
+				async = true;
+				break;
+			case QUEUED_END:
+				ph = "e";
+				label = "queued";
+				async = true;
+				break;
+			case PENDING_BEGIN:
+				ph = "b";
+				label = "pending";
+				async = true;
+				break;
+			case PENDING_END:
+				ph = "e";
+				label = "pending";
+				async = true;
+				break;
+			case RUN_BEGIN:
+				ph = "B";
+				break;
+			case RUN_END:
+				ph = "E";
+				break;
+			case DONE:
+				ph = "i";
+				label = name + " done";
+				break;
+			case CANCELLED:
+				ph = "i";
+				label = name + " cancelled";
+				break;
+			case PAUSED:
+				ph = "i";
+				label = "paused";
+				break;
+			case RESUMED:
+			default:
+				ph = "i";
+				label = "resumed";
+				break;
+		}
+		writer.write("{\"name\":");
+		writeString(writer, label);
+		writer.write(",\"cat\":\"task\",\"ph\":\"");
+		writer.write(ph);
+		writer.write("\",\"ts\":");
+		long nanos = timestamps[i] - origin;
+		writer.write(Long.toString(nanos / 1000));
+		writer.write('.');
+		writer.write(Long.toString(1000 + Math.abs(nanos % 1000)).substring(1));
+		writer.write(",\"pid\":1,\"tid\":");
+		writer.write(Long.toString(thread.getId()));
+		if (async) {
+			writer.write(",\"id\":\"0x");
+			writer.write(Integer.toHexString(ids[i]));
+			writer.write("\",\"args\":{\"task\":");
+			writeString(writer, name);
+			writer.write('}');
+		} else if (ph.equals("i")) {
+			writer.write(kinds[i] == PAUSED || kinds[i] == RESUMED ? ",\"s\":\"p\"" : ",\"s\":\"t\"");
+		}
+		writer.write('}');
+	}
+
+	private static boolean separate(Writer writer, boolean first) throws IOException {
+		if (!first) {
+			writer.write(",\n");
+		}
+		return false;
+	}
+
+	private static void writeString(Writer writer, String s) throws IOException {
+		writer.write('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				writer.write('\\');
+				writer.write(c);
+			} else if (c < 0x20) {
+				writer.write(String.format("\\u%04x", (int) c));
+			} else {
+				writer.write(c);
+			}
+		}
+		writer.write('"');
+	}
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fr.coppernic.framework.art;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import fr.coppernic.framework.art.AsyncExecutor.RetCode;
+import fr.coppernic.framework.art.AsyncExecutorService.OverflowPolicy;
+import fr.coppernic.framework.utils.core.CpcResult.RESULT;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link AsyncExecutorService} on the plain JVM backend, see {@link AsyncExecutorServiceTest}
+ * for the looper backend.
+ */
+public class AsyncExecutorServiceJvmTest extends ExecutorFixture {
+
+	@Test
+	public void streaming() throws InterruptedException {
+		service.setStreaming(true);
+		assertThat(service.execute(), is(RetCode.OK));
+
+		for (int i = 1; i <= 3; i++) {
+			service.add(newTask());
+			await().atMost(5, TimeUnit.SECONDS).untilAtomic(listener.after, is(i));
+		}
+		assertThat(listener.done.await(100, TimeUnit.MILLISECONDS), is(false));
+		assertThat(service.getState(), is(AsyncRunnable.State.RUNNING));
+
+		assertThat(service.close(), is(RetCode.OK));
+		assertThat(listener.done.await(5, TimeUnit.SECONDS), is(true));
+		assertThat(service.getState(), is(AsyncRunnable.State.DONE));
+		assertThat(service.close(), is(RetCode.WRONG_STATE));
+	}
+
+	@Test
+	public void disposeIdleStreaming() throws InterruptedException {
+		service.setStreaming(true);
+		assertThat(service.execute(), is(RetCode.OK));
+		service.add(newTask());
+		await().atMost(5, TimeUnit.SECONDS).untilAtomic(listener.after, is(1));
+
+		// Waiting for tasks, nothing is executing
+		service.dispose();
+		assertThat(listener.cancelled.await(5, TimeUnit.SECONDS), is(true));
+		assertThat(listener.done.getCount(), is(1L));
+		assertThat(service.getState(), is(AsyncRunnable.State.CANCELLED));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void cannotAddAfterClose() {
+		service.setStreaming(true);
+		service.execute();
+		service.close();
+		service.add(newTask());
+	}
+
+	@Test
+	public void overflowPolicies() {
+		service.setCapacity(2, OverflowPolicy.REJECT, 0, TimeUnit.SECONDS);
+		AsyncRunnableTaskTest first = newTask();
+		assertThat(service.offer(first), is(RetCode.OK));
+		assertThat(service.offer(newTask()), is(RetCode.OK));
+		assertThat(service.offer(newTask()), is(RetCode.REJECTED));
+		try {
+			service.add(newTask());
+			fail();
+		} catch (RejectedExecutionException ignore) {
+		}
+
+		service.setCapacity(2, OverflowPolicy.DROP_OLDEST, 0, TimeUnit.SECONDS);
+		service.add(newTask());
+		assertThat(first.isCancelled(), is(true));
+		// Tasks queued are more important
+		AsyncRunnableTaskTest low = newTask();
+		try {
+			service.add(low, AsyncExecutor.PRIORITY_LOW);
+			fail();
+		} catch (RejectedExecutionException ignore) {
+		}
+		assertThat(low.isCancelled(), is(false));
+
+		service.setCapacity(2, OverflowPolicy.CALLER_RUNS, 0, TimeUnit.SECONDS);
+		AsyncRunnableTaskTest task = newTask();
+		service.add(task);
+		assertThat(task.getState(), is(AsyncRunnable.State.DONE));
+		assertThat(listener.after.get(), is(1));
+		assertThat(service.getState(), is(AsyncRunnable.State.IDLE));
+	}
+
+	@Test
+	public void invalidPriorityKeepsQueueUnchanged() throws InterruptedException {
+		service.setCapacity(2, OverflowPolicy.REJECT, 0, TimeUnit.SECONDS);
+		CoalescedTask invalid = new CoalescedTask();
+		for (int priority : new int[]{-1, AsyncExecutor.PRIORITY_URGENT + 1}) {
+			try {
+				service.add(invalid, priority);
+				fail();
+			} catch (IllegalArgumentException ignore) {
+			}
+			try {
+				service.offer(invalid, priority);
+				fail();
+			} catch (IllegalArgumentException ignore) {
+			}
+		}
+
+		// Not in flight : an identical task is queued, not attached
+		CoalescedTask task = new CoalescedTask();
+		service.add(task);
+		// Both places are still free
+		assertThat(service.offer(newTask()), is(RetCode.OK));
+		assertThat(service.offer(newTask()), is(RetCode.REJECTED));
+		assertThat(service.execute(), is(RetCode.OK));
+		assertThat(listener.done.await(5, TimeUnit.SECONDS), is(true));
+		assertThat(task.getState(), is(AsyncRunnable.State.DONE));
+		assertThat(invalid.getState(), is(AsyncRunnable.State.IDLE));
+	}
+
+	@Test
+	public void blockUntilRoom() throws InterruptedException {
+		// Tasks added during execution
+		service.setStreaming(true);
+		service.setCapacity(1, OverflowPolicy.BLOCK, 100, TimeUnit.MILLISECONDS);
+		AsyncRunnableTaskTest first = new AsyncRunnableTaskTest();
+		first.setTimeToSleep(200);
+		service.add(first);
+		long start = System.nanoTime();
+		try {
+			service.add(newTask());
+			fail();
+		} catch (RejectedExecutionException ignore) {
+		}
+		assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+		           greaterThanOrEqualTo(90L));
+
+		// Producer waits until the executor takes the first task
+		service.setCapacity(1, OverflowPolicy.BLOCK, 5, TimeUnit.SECONDS);
+		final Thread producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				service.add(newTask());
+			}
+		});
+		producer.start();
+		await().atMost(5, TimeUnit.SECONDS).until(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return producer.getState() == Thread.State.TIMED_WAITING;
+			}
+		});
+		assertThat(service.execute(), is(RetCode.OK));
+		producer.join(5000);
+		assertThat(producer.isAlive(), is(false));
+
+		service.close();
+		assertThat(listener.done.await(5, TimeUnit.SECONDS), is(true));
+		assertThat(listener.after.get(), is(2));
+	}
+
+	@Test
+	public void cachedResultsShortCircuitTasks() throws InterruptedException {
+		ResultCache<RESULT> cache = new ResultCache<>(10, 1, TimeUnit.MINUTES);
+		service.setResultCache(cache);
+		AsyncRunnableTaskTest[] tasks = new AsyncRunnableTaskTest[5];
+		for (int i = 0; i < tasks.length; i++) {
+			tasks[i] = new CachedTask();
+			service.add(tasks[i]);
+		}
+		assertThat(service.execute(), is(RetCode.OK));
+
+		assertThat(listener.done.await(5, TimeUnit.SECONDS), is(true));
+		assertThat(listener.before.get(), is(5));
+		assertThat(listener.after.get(), is(5));
+		// Only first task is executed
+		assertThat(tasks[0].getState(), is(AsyncRunnable.State.DONE));
+		assertThat(tasks[4].getState(), is(AsyncRunnable.State.IDLE));
+		assertThat(cache.getMissCount(), is(1L));
+		assertThat(cache.getHitCount(), is(4L));
+	}
+
+	@Test
+	public void coalesceIdenticalTasks() throws InterruptedException {
+		AsyncRunnableTaskTest[] tasks = new AsyncRunnableTaskTest[3];
+		for (int i = 0; i < tasks.length; i++) {
+			tasks[i] = new CoalescedTask();
+			service.add(tasks[i]);
+		}
+		service.add(newTask());
+		assertThat(service.execute(), is(RetCode.OK));
+
+		assertThat(listener.done.await(5, TimeUnit.SECONDS), is(true));
+		assertThat(listener.before.get(), is(4));
+		assertThat(listener.after.get(), is(4));
+		assertThat(tasks[0].getState(), is(AsyncRunnable.State.DONE));
+		assertThat(tasks[1].getState(), is(AsyncRunnable.State.IDLE));
+		assertThat(tasks[2].getState(), is(AsyncRunnable.State.IDLE));
+	}
+
+	@Test
+	public void submitAndCompose() throws Exception {
+		service.setStreaming(true);
+		TaskFuture<RESULT> first = service.submit(newTask());
+		AsyncRunnableTaskTest failing = newTask();
+		failing.setResult(RESULT.ERROR);
+		TaskFuture<RESULT> second = service.submit(failing);
+		TaskFuture<List<RESULT>> all = TaskFuture.allOf(Arrays.asList(first, second));
+		assertThat(service.execute(), is(RetCode.OK));
+
+		assertThat(all.get(5, TimeUnit.SECONDS), contains(RESULT.OK, RESULT.ERROR));
+		assertThat(listener.failed.get(), is(1));
+		// Tasks not executed when executor stops are cancelled
+		AsyncRunnableTaskTest never = newTask();
+		never.setTimeToSleep(100);
+		service.add(never);
+		TaskFuture<RESULT> dropped = service.submit(newTask());
+		service.close();
+		service.dispose();
+		try {
+			dropped.get(5, TimeUnit.SECONDS);
+			fail("Future shall be cancelled");
+		} catch (CancellationException ignored) {
+		}
+	}
+
+	@Test
+	public void submitTimedOut() throws Exception {
+		AsyncRunnableTask<RESULT> task = new AsyncRunnableTask<RESULT>() {
+			@Override
+			public String getName() {
+				return "Silent";
+			}
+
+			@Override
+			public void execute() {
+				// Never reports, its watchdog does
+				setWatchdog(50, RESULT.ERROR, 0);
+			}
+		};
+		TaskFuture<RESULT> future = service.submit(task);
+		assertThat(service.execute(), is(RetCode.OK));
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			fail("Future shall fail");
+		} catch (ExecutionException e) {
+			assertThat(e.getCause() instanceof TimeoutException, is(true));
+		}
+		assertThat(future.getNow(), is(RESULT.ERROR));
+		assertThat(listener.done.await(5, TimeUnit.SECONDS), is(true));
+	}
+
+	@Test(timeout = 60000)
+	public void disposeWhileReporting() throws InterruptedException {
+		Random random = new Random(42);
+		for (int i = 0; i < 300; i++) {
+			ExecutorDispatcher d = ExecutorDispatcher.newSingleThread("dispose-" + i);
+			AsyncExecutorService<RESULT, AsyncRunnableTask<RESULT>> s =
+				new AsyncExecutorService<>(d);
+			final AtomicBoolean disposed = new AtomicBoolean();
+			final AtomicBoolean doneAfterDispose = new AtomicBoolean();
+			Listener l = new Listener() {
+				@Override
+				public void onDone() {
+					doneAfterDispose.compareAndSet(false, disposed.get());
+					super.onDone();
+				}
+			};
+			s.setListener(l);
+			for (int j = 0; j < 20; j++) {
+				s.add(newTask());
+			}
+			s.execute();
+			long end = System.nanoTime() + random.nextInt(2000000);
+			while (System.nanoTime() < end) {
+				Thread.yield();
+			}
+			s.dispose();
+			disposed.set(true);
+
+			// Suite ends exactly once, after the last task it started
+			long deadline = System.currentTimeMillis() + 5000;
+			while (l.done.getCount() + l.cancelled.getCount() == 2) {
+				assertThat("Suite " + i + " never ended", System.currentTimeMillis() < deadline,
+					is(true));
+				Thread.sleep(1);
+			}
+			Thread.sleep(2);
+			assertThat(l.done.getCount() + l.cancelled.getCount(), is(1L));
+			assertThat(l.after.get() + l.failed.get(), is(l.before.get()));
+			assertThat("Suite " + i + " done after dispose", doneAfterDispose.get(), is(false));
+			d.quit();
+		}
+	}
+
+	private static class CachedTask extends AsyncRunnableTaskTest implements Cacheable {
+		CachedTask() {
+			setTimeToSleep(0);
+		}
+
+		@Override
+		public Object getCacheKey() {
+			return "key";
+		}
+	}
+
+	private static class CoalescedTask extends AsyncRunnableTaskTest implements Coalescable {
+		CoalescedTask() {
+			setTimeToSleep(0);
+		}
+
+		@Override
+		public Object getCoalescingKey() {
+			return "key";
+		}
+	}
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fr.coppernic.framework.art;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fr.coppernic.framework.art.AsyncExecutor.RetCode;
+import fr.coppernic.framework.utils.core.CpcResult.RESULT;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * {@link AsyncRunnableTask} executed on the plain JVM backend
+ */
+public class AsyncRunnableTaskJvmTest extends ExecutorFixture {
+
+	@Test
+	public void retryTransientFailures() throws InterruptedException {
+		FlakyTask task = new FlakyTask(2);
+		task.setRetryPolicy(retryErrors(10));
+		service.add(task);
+		assertThat(service.execute(), is(RetCode.OK));
+
+		assertThat(listener.done.await(5, TimeUnit.SECONDS), is(true));
+		assertThat(task.attempts.get(), is(3));
+		assertThat(task.getRetryCount(), is(2));
+		// Every retry is a new attempt
+		assertThat(task.firstExecutions.get(), is(3));
+		// Only the last result is reported
+		assertThat(listener.before.get(), is(1));
+		assertThat(listener.after.get(), is(1));
+	}
+
+	@Test
+	public void retryOnDeadDispatcherIsReported() {
+		final FlakyTask task = new FlakyTask(2);
+		task.setRetryPolicy(retryErrors(500));
+		ExecutorDispatcher dead = ExecutorDispatcher.newSingleThread("AsyncRunnableTaskJvmTest");
+		assertThat(dead.post(task), is(true));
+		await().atMost(5, TimeUnit.SECONDS).untilAtomic(task.attempts, is(1));
+		dead.quit();
+
+		// Retry cannot be executed : last result is reported as cancelled, task does not stay
+		// PENDING
+		await().atMost(5, TimeUnit.SECONDS).until(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return task.getState() == AsyncRunnable.State.DONE;
+			}
+		});
+		assertThat(task.attempts.get(), is(1));
+	}
+
+	@Test
+	public void wakeUpPendingTask() throws InterruptedException {
+		final WaitingTask task = new WaitingTask();
+		service.add(task);
+		assertThat(service.execute(), is(RetCode.OK));
+
+		await().atMost(5, TimeUnit.SECONDS).until(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return task.getState() == AsyncRunnable.State.PENDING;
+			}
+		});
+		assertThat(task.wakeUp(), is(true));
+		// Requests made during second execution are coalesced into a third one
+		assertThat(task.executing.await(5, TimeUnit.SECONDS), is(true));
+		assertThat(task.wakeUp(), is(true));
+		for (int i = 0; i < 5; i++) {
+			assertThat(task.wakeUp(), is(false));
+		}
+		task.release.countDown();
+
+		assertThat(listener.done.await(5, TimeUnit.SECONDS), is(true));
+		assertThat(task.executions.get(), is(3));
+		assertThat(task.wakeUp(), is(false));
+	}
+
+	@Test
+	public void wakeUpDeferredWhilePaused() throws InterruptedException {
+		final WaitingTask task = new WaitingTask();
+		task.release.countDown();
+		service.add(task);
+		assertThat(service.execute(), is(RetCode.OK));
+		await().atMost(5, TimeUnit.SECONDS).until(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return task.getState() == AsyncRunnable.State.PENDING;
+			}
+		});
+
+		assertThat(service.pause(), is(RetCode.OK));
+		assertThat(task.wakeUp(), is(true));
+		// Not executed while paused
+		assertThat(task.executing.await(200, TimeUnit.MILLISECONDS), is(false));
+		assertThat(task.executions.get(), is(1));
+
+		assertThat(service.resume(), is(RetCode.OK));
+		assertThat(task.executing.await(5, TimeUnit.SECONDS), is(true));
+		assertThat(task.wakeUp(), is(true));
+		assertThat(listener.done.await(5, TimeUnit.SECONDS), is(true));
+		assertThat(task.executions.get(), is(3));
+	}
+
+	@Test
+	public void resetWaitsForRun() throws InterruptedException {
+		final ReportingTask task = new ReportingTask();
+		assertThat(dispatcher.post(task), is(true));
+		assertThat(task.reported.await(5, TimeUnit.SECONDS), is(true));
+
+		// Done, but its execute() has not returned yet
+		final CountDownLatch reset = new CountDownLatch(1);
+		final Thread resetter = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				task.reset();
+				reset.countDown();
+			}
+		});
+		resetter.start();
+		await().atMost(5, TimeUnit.SECONDS).until(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return resetter.getState() == Thread.State.WAITING;
+			}
+		});
+		// Waiting, not spinning
+		assertThat(reset.await(100, TimeUnit.MILLISECONDS), is(false));
+		assertThat(task.getState(), is(AsyncRunnable.State.DONE));
+
+		task.release.countDown();
+		assertThat(reset.await(5, TimeUnit.SECONDS), is(true));
+		assertThat(task.getState(), is(AsyncRunnable.State.IDLE));
+	}
+
+	private static RetryPolicy<RESULT> retryErrors(long delayMs) {
+		return new RetryPolicy<RESULT>(3, delayMs, TimeUnit.MILLISECONDS)
+			.setCondition(new RetryPolicy.Condition<RESULT>() {
+				@Override
+				public boolean shouldRetry(RESULT result) {
+					return result == RESULT.ERROR;
+				}
+			});
+	}
+
+	private static class FlakyTask extends AsyncRunnableTask<RESULT> {
+		final AtomicInteger attempts = new AtomicInteger();
+		final AtomicInteger firstExecutions = new AtomicInteger();
+		private final int failures;
+
+		FlakyTask(int failures) {
+			this.failures = failures;
+		}
+
+		@Override
+		public String getName() {
+			return "FlakyTask";
+		}
+
+		@Override
+		public void execute() {
+			if (isFirstExecution()) {
+				firstExecutions.incrementAndGet();
+			}
+			onDone(attempts.incrementAndGet() > failures ? RESULT.OK : RESULT.ERROR);
+		}
+	}
+
+	private static class WaitingTask extends AsyncRunnableTask<RESULT> {
+		final AtomicInteger executions = new AtomicInteger();
+		final CountDownLatch executing = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		@Override
+		public String getName() {
+			return "WaitingTask";
+		}
+
+		@Override
+		public void execute() {
+			int n = executions.incrementAndGet();
+			if (n == 2) {
+				executing.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
+			} else if (n == 3) {
+				onDone(RESULT.OK);
+			}
+		}
+	}
+
+	private static class ReportingTask extends AsyncRunnableTask<RESULT> {
+		final CountDownLatch reported = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		@Override
+		public String getName() {
+			return "ReportingTask";
+		}
+
+		@Override
+		public void execute() {
+			onDone(RESULT.OK);
+			reported.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
@@ -34,6 +34,7 @@ public class AsyncRunnableTaskTest extends AsyncRunnableTask<RESULT> {
 
 	private long timeToSleep = 100;
 	private RESULT result = RESULT.OK;
+	private boolean cancelOnResult = false;
 
 	public void setTimeToSleep(long timeToSleep) {
 		this.timeToSleep = timeToSleep;
@@ -43,6 +44,10 @@ public class AsyncRunnableTaskTest extends AsyncRunnableTask<RESULT> {
 		this.result = result;
 	}
 
+	public void setCancelOnResult(boolean cancelOnResult) {
+		this.cancelOnResult = cancelOnResult;
+	}
+
 	@Override
 	public String getName() {
 		return "Name";
@@ -55,6 +60,10 @@ public class AsyncRunnableTaskTest extends AsyncRunnableTask<RESULT> {
 		} catch (InterruptedException e) {
 			e.printStackTrace();
 		}
-		onDone(result);
+		if (cancelOnResult) {
+			onCancel(result);
+		} else {
+			onDone(result);
+		}
 	}
 }
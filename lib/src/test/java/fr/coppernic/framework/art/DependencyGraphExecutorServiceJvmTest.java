@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fr.coppernic.framework.art;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import fr.coppernic.framework.art.AsyncExecutor.RetCode;
+import fr.coppernic.framework.utils.core.CpcResult.RESULT;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * {@link DependencyGraphExecutorService} on the plain JVM backend, see
+ * {@link DependencyGraphExecutorServiceTest} for the looper backend.
+ */
+public class DependencyGraphExecutorServiceJvmTest {
+
+	private ExecutorDispatcher dispatcher;
+	private DependencyGraphExecutorService<RESULT, AsyncRunnableTask<RESULT>> service;
+
+	@Before
+	public void before() {
+		dispatcher = ExecutorDispatcher.newSingleThread("DependencyGraphExecutorServiceJvmTest");
+		service = new DependencyGraphExecutorService<>(dispatcher, 1);
+	}
+
+	@After
+	public void after() {
+		dispatcher.quit();
+	}
+
+	@Test
+	public void rootsExecutedInAddOrder() throws InterruptedException {
+		final List<AsyncRunnableTask<RESULT>> executed =
+			Collections.synchronizedList(new ArrayList<AsyncRunnableTask<RESULT>>());
+		ExecutorFixture.Listener listener = new ExecutorFixture.Listener() {
+			@Override
+			public void beforeTask(AsyncRunnableTask<RESULT> task) {
+				executed.add(task);
+			}
+		};
+		service.setListener(listener);
+		List<AsyncRunnableTask<RESULT>> tasks = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			AsyncRunnableTaskTest task = ExecutorFixture.newTask();
+			tasks.add(task);
+			service.add(task);
+		}
+		assertThat(service.execute(), is(RetCode.OK));
+
+		assertThat(listener.done.await(5, TimeUnit.SECONDS), is(true));
+		assertThat(executed, is(tasks));
+	}
+
+	@Test(timeout = 5000)
+	public void cycleCheckOnDiamonds() {
+		// Chain of 40 diamonds : each level has two paths to the previous one
+		AsyncRunnableTaskTest top = ExecutorFixture.newTask();
+		service.add(top);
+		for (int i = 0; i < 40; i++) {
+			AsyncRunnableTaskTest left = ExecutorFixture.newTask();
+			AsyncRunnableTaskTest right = ExecutorFixture.newTask();
+			AsyncRunnableTaskTest bottom = ExecutorFixture.newTask();
+			service.add(left);
+			service.add(right);
+			service.add(bottom);
+			service.addDependency(left, top);
+			service.addDependency(right, top);
+			service.addDependency(bottom, left);
+			service.addDependency(bottom, right);
+			top = bottom;
+		}
+		try {
+			service.addDependency(top, top);
+		} catch (IllegalArgumentException ignore) {
+		}
+		AsyncRunnableTaskTest unrelated = ExecutorFixture.newTask();
+		service.add(unrelated);
+		// Walks the whole graph without finding a cycle
+		service.addDependency(unrelated, top);
+	}
+}
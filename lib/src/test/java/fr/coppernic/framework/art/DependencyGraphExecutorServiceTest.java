@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fr.coppernic.framework.art;
+
+import android.os.HandlerThread;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.robolectric.Shadows;
+
+import fr.coppernic.framework.robolectric.RobolectricTest;
+import fr.coppernic.framework.utils.core.CpcResult.RESULT;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class DependencyGraphExecutorServiceTest extends RobolectricTest {
+
+	private static final String TAG = "DependencyGraphTest";
+	private HandlerThread[] threads;
+	private DependencyGraphExecutorService<RESULT, AsyncRunnableTask<RESULT>> service;
+	private AsyncExecutorListener<RESULT, AsyncRunnableTask<RESULT>> listener;
+	private AsyncRunnableTaskTest a;
+	private AsyncRunnableTaskTest b;
+	private AsyncRunnableTaskTest c;
+	private AsyncRunnableTaskTest d;
+
+	@Before
+	public void before() {
+		threads = new HandlerThread[]{new HandlerThread(TAG + "0"), new HandlerThread(TAG + "1")};
+		service = new DependencyGraphExecutorService<>(threads);
+		//noinspection unchecked
+		listener = mock(AsyncExecutorListener.class);
+		service.setListener(listener);
+
+		// Diamond : a -> (b, c) -> d
+		a = newTask();
+		b = newTask();
+		c = newTask();
+		d = newTask();
+		service.add(a);
+		service.add(b);
+		service.add(c);
+		service.add(d);
+		service.addDependency(b, a);
+		service.addDependency(c, a);
+		service.addDependency(d, b);
+		service.addDependency(d, c);
+	}
+
+	@After
+	public void after() {
+		for (HandlerThread thread : threads) {
+			thread.quit();
+		}
+		threads = null;
+	}
+
+	@Test
+	public void executeInDependencyOrder() {
+		service.execute();
+		runLoopers();
+
+		InOrder order = inOrder(listener);
+		order.verify(listener).afterTask(a, RESULT.OK);
+		order.verify(listener).beforeTask(d);
+		order.verify(listener).afterTask(d, RESULT.OK);
+		order.verify(listener).onDone();
+		verify(listener, times(1)).afterTask(b, RESULT.OK);
+		verify(listener, times(1)).afterTask(c, RESULT.OK);
+		assertThat(service.getCriticalPath().size(), is(3));
+		assertThat(service.getCriticalPath().get(0), is((AsyncRunnableTask<RESULT>) a));
+	}
+
+	@Test
+	public void cancelDependentsOnly() {
+		AsyncRunnableTaskTest e = newTask();
+		service.add(e);
+		b.setResult(RESULT.CANCELLED);
+		b.setCancelOnResult(true);
+		service.execute();
+		runLoopers();
+
+		verify(listener, times(1)).afterTask(b, RESULT.CANCELLED);
+		verify(listener, times(1)).afterTask(e, RESULT.OK);
+		verify(listener, never()).beforeTask(d);
+		verify(listener, never()).onCancelled();
+		verify(listener, times(1)).onDone();
+		assertThat(d.isCancelled(), is(true));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectCycle() {
+		service.addDependency(a, d);
+	}
+
+	@Test
+	public void criticalPathIsEmptyBeforeExecution() {
+		assertThat(service.getCriticalPathLength(), is(0L));
+		assertThat(service.getCriticalPath(), contains());
+	}
+
+	private AsyncRunnableTaskTest newTask() {
+		AsyncRunnableTaskTest task = new AsyncRunnableTaskTest();
+		task.setTimeToSleep(0);
+		return task;
+	}
+
+	private void runLoopers() {
+		for (int i = 0; i < 6; i++) {
+			for (HandlerThread thread : threads) {
+				Shadows.shadowOf(thread.getLooper()).idle();
+			}
+		}
+	}
+}
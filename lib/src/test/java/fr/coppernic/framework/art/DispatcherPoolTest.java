@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fr.coppernic.framework.art;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fr.coppernic.framework.utils.core.CpcResult.RESULT;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class DispatcherPoolTest {
+
+	@Test
+	public void threadBudget() {
+		DispatcherPool pool = new DispatcherPool("DispatcherPoolTest", 2, 1, TimeUnit.SECONDS);
+		Dispatcher first = pool.lease();
+		Dispatcher second = pool.lease();
+		Dispatcher third = pool.lease();
+		assertThat(pool.getThreadCount(), is(2));
+		first.quit();
+		second.quit();
+		third.quit();
+	}
+
+	@Test
+	public void releaseDoesNotQuitSharedThread() throws InterruptedException {
+		DispatcherPool pool = new DispatcherPool("DispatcherPoolTest", 1, 1, TimeUnit.SECONDS);
+		Dispatcher first = pool.lease();
+		Dispatcher second = pool.lease();
+		first.quit();
+		assertThat(first.isAlive(), is(false));
+		assertThat(second.isAlive(), is(true));
+
+		// Executor disposing its lease does not stop the other one
+		final CountDownLatch latch = new CountDownLatch(1);
+		assertThat(second.post(new Runnable() {
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		}), is(true));
+		assertThat(latch.await(5, TimeUnit.SECONDS), is(true));
+		second.quit();
+	}
+
+	@Test
+	public void idleThreadsAreQuit() {
+		final DispatcherPool pool =
+			new DispatcherPool("DispatcherPoolTest", 4, 50, TimeUnit.MILLISECONDS);
+		Dispatcher dispatcher = pool.lease();
+		dispatcher.quit();
+		assertThat(pool.getThreadCount(), is(1));
+		await().atMost(5, TimeUnit.SECONDS).until(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return pool.getThreadCount() == 0;
+			}
+		});
+	}
+
+	@Test
+	public void executorsShareThreads() throws Exception {
+		DispatcherPool pool = new DispatcherPool("DispatcherPoolTest", 2, 1, TimeUnit.SECONDS);
+		TaskFuture<?>[] futures = new TaskFuture<?>[10];
+		for (int i = 0; i < futures.length; i++) {
+			AsyncExecutorService<RESULT, AsyncRunnableTask<RESULT>> service =
+				new AsyncExecutorService<>(pool.lease());
+			service.setStreaming(true);
+			AsyncRunnableTaskTest task = new AsyncRunnableTaskTest();
+			task.setTimeToSleep(10);
+			futures[i] = service.submit(task);
+			service.execute();
+			service.close();
+		}
+		for (TaskFuture<?> future : futures) {
+			assertThat(future.get(5, TimeUnit.SECONDS), is((Object) RESULT.OK));
+		}
+		assertThat(pool.getThreadCount(), is(2));
+	}
+
+	@Test
+	public void executorsGiveBackTheirLease() throws Exception {
+		final DispatcherPool pool =
+			new DispatcherPool("DispatcherPoolTest", 3, 50, TimeUnit.MILLISECONDS);
+
+		// Done
+		AsyncExecutorService<RESULT, AsyncRunnableTask<RESULT>> done =
+			new AsyncExecutorService<>(pool.lease());
+		AsyncRunnableTaskTest task = new AsyncRunnableTaskTest();
+		task.setTimeToSleep(0);
+		TaskFuture<RESULT> future = done.submit(task);
+		done.execute();
+		assertThat(future.get(5, TimeUnit.SECONDS), is(RESULT.OK));
+
+		// Disposed before execution
+		new AsyncExecutorService<RESULT, AsyncRunnableTask<RESULT>>(pool.lease()).dispose();
+
+		// Disposed while its task is running
+		AsyncExecutorService<RESULT, AsyncRunnableTask<RESULT>> running =
+			new AsyncExecutorService<>(pool.lease());
+		task = new AsyncRunnableTaskTest();
+		task.setTimeToSleep(100);
+		running.add(task);
+		running.execute();
+		Thread.sleep(20);
+		running.dispose();
+
+		await().atMost(5, TimeUnit.SECONDS).until(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return pool.getThreadCount() == 0;
+			}
+		});
+	}
+
+	@Test
+	public void releasedLeaseDropsWakeUps() throws InterruptedException {
+		DispatcherPool pool = new DispatcherPool("DispatcherPoolTest", 1, 1, TimeUnit.SECONDS);
+		Dispatcher lease = pool.lease();
+		AsyncExecutorService<RESULT, AsyncRunnableTask<RESULT>> service =
+			new AsyncExecutorService<>(lease);
+		final WaitingTask task = new WaitingTask();
+		service.add(task);
+		service.execute();
+		await().atMost(5, TimeUnit.SECONDS).until(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return task.getState() == AsyncRunnable.State.PENDING;
+			}
+		});
+
+		// Thread of the pool is still alive, but no longer owned by the executor
+		lease.quit();
+		task.wakeUp();
+		Thread.sleep(100);
+		assertThat(task.executions.get(), is(1));
+	}
+
+	@Test
+	public void releasedLeaseDropsRetries() throws InterruptedException {
+		DispatcherPool pool = new DispatcherPool("DispatcherPoolTest", 1, 1, TimeUnit.SECONDS);
+		Dispatcher lease = pool.lease();
+		AsyncExecutorService<RESULT, AsyncRunnableTask<RESULT>> service =
+			new AsyncExecutorService<>(lease);
+		WaitingTask task = new WaitingTask();
+		task.setRetryPolicy(new RetryPolicy<RESULT>(3, 100, TimeUnit.MILLISECONDS)
+			                    .setCondition(new RetryPolicy.Condition<RESULT>() {
+				                    @Override
+				                    public boolean shouldRetry(RESULT result) {
+					                    return true;
+				                    }
+			                    }));
+		task.failing = true;
+		service.add(task);
+		service.execute();
+		assertThat(task.executed.await(5, TimeUnit.SECONDS), is(true));
+
+		lease.quit();
+		Thread.sleep(300);
+		assertThat(task.executions.get(), is(1));
+	}
+
+	private static class WaitingTask extends AsyncRunnableTask<RESULT> {
+		final AtomicInteger executions = new AtomicInteger();
+		final CountDownLatch executed = new CountDownLatch(1);
+		volatile boolean failing = false;
+
+		@Override
+		public String getName() {
+			return "WaitingTask";
+		}
+
+		@Override
+		public void execute() {
+			executions.incrementAndGet();
+			if (failing) {
+				onDone(RESULT.ERROR);
+			}
+			executed.countDown();
+		}
+	}
+}
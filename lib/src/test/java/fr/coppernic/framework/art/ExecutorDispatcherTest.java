@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fr.coppernic.framework.art;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fr.coppernic.framework.art.AsyncExecutor.RetCode;
+import fr.coppernic.framework.utils.core.CpcResult.RESULT;
+
+import static fr.coppernic.framework.art.ExecutorFixture.newTask;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+/**
+ * Executors running on the plain JVM backend, without Robolectric. Features of the executors
+ * themselves are tested with {@link ExecutorFixture}.
+ */
+public class ExecutorDispatcherTest {
+
+	private ExecutorDispatcher dispatcher;
+
+	@After
+	public void after() {
+		dispatcher.quit();
+	}
+
+	@Test
+	public void singleThreadExecution() throws InterruptedException {
+		dispatcher = ExecutorDispatcher.newSingleThread("ExecutorDispatcherTest");
+		AsyncExecutorService<RESULT, AsyncRunnableTask<RESULT>> service =
+			new AsyncExecutorService<>(dispatcher);
+		ExecutorFixture.Listener listener = new ExecutorFixture.Listener();
+		service.setListener(listener);
+		for (int i = 0; i < 100; i++) {
+			service.add(newTask());
+		}
+		assertThat(service.execute(), is(RetCode.OK));
+
+		assertThat(listener.done.await(5, TimeUnit.SECONDS), is(true));
+		assertThat(listener.before.get(), is(100));
+		assertThat(listener.after.get(), is(100));
+	}
+
+	@Test
+	public void pooledExecution() throws InterruptedException {
+		dispatcher = ExecutorDispatcher.newPool("ExecutorDispatcherTest", 4);
+		ParallelAsyncExecutorService<RESULT, AsyncRunnableTask<RESULT>> service =
+			new ParallelAsyncExecutorService<>(dispatcher, 4);
+		ExecutorFixture.Listener listener = new ExecutorFixture.Listener();
+		service.setListener(listener);
+		for (int i = 0; i < 100; i++) {
+			service.add(newTask());
+		}
+		assertThat(service.execute(), is(RetCode.OK));
+
+		assertThat(listener.done.await(5, TimeUnit.SECONDS), is(true));
+		assertThat(listener.after.get(), is(100));
+		assertThat(service.getState(), is(AsyncRunnable.State.DONE));
+	}
+
+	@Test
+	public void batchSynchronousTasks() throws InterruptedException {
+		dispatcher = ExecutorDispatcher.newSingleThread("ExecutorDispatcherTest");
+		final AtomicInteger posts = new AtomicInteger();
+		Dispatcher counting = new Dispatcher() {
+			@Override
+			public boolean post(Runnable r) {
+				posts.incrementAndGet();
+				return dispatcher.post(r);
+			}
+
+			@Override
+			public boolean send(Target target, int what) {
+				return dispatcher.send(target, what);
+			}
+
+			@Override
+			public boolean isAlive() {
+				return dispatcher.isAlive();
+			}
+
+			@Override
+			public void quit() {
+				dispatcher.quit();
+			}
+		};
+		AsyncExecutorService<RESULT, AsyncRunnableTask<RESULT>> service =
+			new AsyncExecutorService<>(counting);
+		service.setBatching(10, 1, TimeUnit.MINUTES);
+		ExecutorFixture.Listener listener = new ExecutorFixture.Listener();
+		service.setListener(listener);
+		for (int i = 0; i < 100; i++) {
+			service.add(newTask());
+		}
+		assertThat(service.execute(), is(RetCode.OK));
+
+		assertThat(listener.done.await(5, TimeUnit.SECONDS), is(true));
+		assertThat(listener.after.get(), is(100));
+		// One dispatch per batch of 10 tasks
+		assertThat(posts.get(), is(10));
+	}
+
+	@Test
+	public void notAliveAfterQuit() {
+		dispatcher = ExecutorDispatcher.newSingleThread("ExecutorDispatcherTest");
+		assertThat(dispatcher.isAlive(), is(true));
+		dispatcher.quit();
+		assertThat(dispatcher.isAlive(), is(false));
+		assertThat(dispatcher.post(newTask()), is(false));
+	}
+
+	@Test
+	public void sendRecyclesEvents() throws InterruptedException {
+		dispatcher = ExecutorDispatcher.newSingleThread("ExecutorDispatcherTest");
+		final CountDownLatch latch = new CountDownLatch(1);
+		final AtomicInteger received = new AtomicInteger();
+		ExecutorDispatcher.Event event = ExecutorDispatcher.Event.obtain(
+			new Dispatcher.Target() {
+				@Override
+				public void onEvent(int what) {
+					received.set(what);
+					latch.countDown();
+				}
+			}, 42);
+		assertThat(dispatcher.post(event), is(true));
+		assertThat(latch.await(5, TimeUnit.SECONDS), is(true));
+		assertThat(received.get(), is(42));
+		// Delivered event goes back to the pool
+		assertThat(ExecutorDispatcher.Event.obtain(null, 0), is(event));
+	}
+
+	@Test
+	public void threadPerTaskExecution() throws InterruptedException {
+		dispatcher = ExecutorDispatcher.newThreadPerTask("ExecutorDispatcherTest");
+		// As many lanes as blocking tasks
+		ParallelAsyncExecutorService<RESULT, AsyncRunnableTask<RESULT>> service =
+			new ParallelAsyncExecutorService<>(dispatcher, 200);
+		ExecutorFixture.Listener listener = new ExecutorFixture.Listener();
+		service.setListener(listener);
+		for (int i = 0; i < 200; i++) {
+			AsyncRunnableTaskTest task = new AsyncRunnableTaskTest();
+			task.setTimeToSleep(200);
+			service.add(task);
+		}
+		long start = System.nanoTime();
+		assertThat(service.execute(), is(RetCode.OK));
+
+		assertThat(listener.done.await(5, TimeUnit.SECONDS), is(true));
+		assertThat(listener.after.get(), is(200));
+		// Tasks have been blocked at the same time
+		assertThat((System.nanoTime() - start) / 1000000, lessThan(2000L));
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fr.coppernic.framework.art;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fr.coppernic.framework.utils.core.CpcResult.RESULT;
+
+/**
+ * Executor running on a single thread {@link ExecutorDispatcher}, for tests on the plain JVM.
+ */
+public abstract class ExecutorFixture {
+
+	protected ExecutorDispatcher dispatcher;
+	protected AsyncExecutorService<RESULT, AsyncRunnableTask<RESULT>> service;
+	protected Listener listener;
+
+	@Before
+	public void before() {
+		dispatcher = ExecutorDispatcher.newSingleThread(getClass().getSimpleName());
+		service = new AsyncExecutorService<>(dispatcher);
+		listener = new Listener();
+		service.setListener(listener);
+	}
+
+	@After
+	public void after() {
+		dispatcher.quit();
+	}
+
+	static AsyncRunnableTaskTest newTask() {
+		AsyncRunnableTaskTest task = new AsyncRunnableTaskTest();
+		task.setTimeToSleep(0);
+		return task;
+	}
+
+	/**
+	 * Counts callbacks, tasks done with another result than {@link RESULT#OK} are failed ones
+	 */
+	static class Listener implements AsyncExecutorListener<RESULT, AsyncRunnableTask<RESULT>> {
+		final AtomicInteger before = new AtomicInteger();
+		final AtomicInteger after = new AtomicInteger();
+		final AtomicInteger failed = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(1);
+		final CountDownLatch cancelled = new CountDownLatch(1);
+
+		@Override
+		public void beforeTask(AsyncRunnableTask<RESULT> task) {
+			before.incrementAndGet();
+		}
+
+		@Override
+		public void afterTask(AsyncRunnableTask<RESULT> task, RESULT res) {
+			if (res == RESULT.OK) {
+				after.incrementAndGet();
+			} else {
+				failed.incrementAndGet();
+			}
+		}
+
+		@Override
+		public void onDone() {
+			done.countDown();
+		}
+
+		@Override
+		public void onCancelled() {
+			cancelled.countDown();
+		}
+
+		@Override
+		public void onPaused() {
+		}
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fr.coppernic.framework.art;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import fr.coppernic.framework.art.ExecutorMetrics.Phase;
+import fr.coppernic.framework.utils.core.CpcResult.RESULT;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class ExecutorMetricsTest {
+
+	private ExecutorDispatcher dispatcher;
+
+	@After
+	public void after() {
+		if (dispatcher != null) {
+			dispatcher.quit();
+		}
+	}
+
+	@Test
+	public void histogramPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000L);
+		}
+		assertThat(histogram.getCount(), is(1000L));
+		assertThat(histogram.getMax(), is(1000000L));
+		assertThat(histogram.getMean(), is(500500L));
+		long p50 = histogram.getValueAtPercentile(50);
+		assertThat(p50, greaterThanOrEqualTo(500000L));
+		assertThat(p50, lessThanOrEqualTo(625000L));
+		assertThat(histogram.getValueAtPercentile(100), is(1000000L));
+	}
+
+	@Test
+	public void histogramBuckets() {
+		for (long v : new long[]{0, 1, 3, 4, 7, 8, 100, 12345678, Long.MAX_VALUE}) {
+			int index = LatencyHistogram.indexOf(v);
+			assertThat(LatencyHistogram.lowestOf(index), lessThanOrEqualTo(v));
+			assertThat(LatencyHistogram.highestOf(index), greaterThanOrEqualTo(v));
+		}
+	}
+
+	@Test
+	public void recordSuite() throws InterruptedException {
+		dispatcher = ExecutorDispatcher.newSingleThread("ExecutorMetricsTest");
+		AsyncExecutorService<RESULT, AsyncRunnableTask<RESULT>> service =
+			new AsyncExecutorService<>(dispatcher);
+		ExecutorMetrics metrics = new ExecutorMetrics();
+		service.setObserver(metrics);
+		final CountDownLatch done = new CountDownLatch(1);
+		service.setListener(new AsyncExecutorListener<RESULT, AsyncRunnableTask<RESULT>>() {
+			@Override
+			public void beforeTask(AsyncRunnableTask<RESULT> task) {
+			}
+
+			@Override
+			public void afterTask(AsyncRunnableTask<RESULT> task, RESULT res) {
+			}
+
+			@Override
+			public void onDone() {
+				done.countDown();
+			}
+
+			@Override
+			public void onCancelled() {
+			}
+
+			@Override
+			public void onPaused() {
+			}
+		});
+		for (int i = 0; i < 50; i++) {
+			AsyncRunnableTaskTest task = new AsyncRunnableTaskTest();
+			task.setTimeToSleep(1);
+			service.add(task);
+		}
+		service.execute();
+		assertThat(done.await(5, TimeUnit.SECONDS), is(true));
+
+		assertThat(metrics.getDoneCount(), is(50L));
+		assertThat(metrics.getCancelledCount(), is(0L));
+		assertThat(metrics.getTimeoutCount(), is(0L));
+		assertThat(metrics.getThroughput(), greaterThan(0d));
+		assertThat(metrics.getTaskNames(), contains("Name"));
+		for (Phase phase : Phase.values()) {
+			assertThat(metrics.getHistogram(phase).getCount(), is(50L));
+			assertThat(metrics.getHistogram("Name", phase).getCount(), is(50L));
+		}
+		// Tasks sleep 1ms
+		assertThat(metrics.getHistogram(Phase.TOTAL).getValueAtPercentile(50),
+		           greaterThanOrEqualTo(1000000L));
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fr.coppernic.framework.art;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class ForkJoinAsyncTaskTest {
+
+	private static final long N = 1 << 20;
+	private static final long SUM = N * (N - 1) / 2;
+
+	private final Set<Thread> threads =
+		Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+	private ExecutorDispatcher dispatcher;
+
+	@After
+	public void after() {
+		dispatcher.quit();
+	}
+
+	@Test
+	public void forkOnPool() throws Exception {
+		dispatcher = ExecutorDispatcher.newForkJoin("ForkJoinAsyncTaskTest", 4);
+		AsyncExecutorService<Long, SumTask> service = new AsyncExecutorService<>(dispatcher);
+		service.setStreaming(true);
+		TaskFuture<Long> future = service.submit(new SumTask(0, N));
+		service.execute();
+
+		assertThat(future.get(5, TimeUnit.SECONDS), is(SUM));
+		for (Thread t : threads) {
+			assertThat(t instanceof ForkJoinWorkerThread, is(true));
+		}
+	}
+
+	@Test
+	public void sequentialElsewhere() throws Exception {
+		dispatcher = ExecutorDispatcher.newSingleThread("ForkJoinAsyncTaskTest");
+		AsyncExecutorService<Long, SumTask> service = new AsyncExecutorService<>(dispatcher);
+		service.setStreaming(true);
+		TaskFuture<Long> future = service.submit(new SumTask(0, N));
+		service.execute();
+
+		assertThat(future.get(5, TimeUnit.SECONDS), is(SUM));
+		assertThat(threads.size(), is(1));
+	}
+
+	@Test
+	public void cancelledChildCancelsParent() throws Exception {
+		dispatcher = ExecutorDispatcher.newForkJoin("ForkJoinAsyncTaskTest", 2);
+		AsyncExecutorService<Long, SumTask> service = new AsyncExecutorService<>(dispatcher);
+		service.setStreaming(true);
+		// Negative range is cancelled by the leaf
+		TaskFuture<Long> future = service.submit(new SumTask(0, -N));
+		service.execute();
+
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			throw new AssertionError("Cancellation expected");
+		} catch (CancellationException ignored) {
+		}
+	}
+
+	@Test
+	public void cancelledChildCancelsSiblings() throws Exception {
+		dispatcher = ExecutorDispatcher.newSingleThread("ForkJoinAsyncTaskTest");
+		AsyncExecutorService<Long, SumTask> service = new AsyncExecutorService<>(dispatcher);
+		service.setStreaming(true);
+		// Children are executed in order out of a pool, second one is cancelled before it runs
+		final AtomicBoolean ran = new AtomicBoolean(false);
+		final SumTask sibling = new SumTask(0, 10) {
+			@Override
+			protected Long compute() {
+				ran.set(true);
+				return super.compute();
+			}
+		};
+		TaskFuture<Long> future = service.submit(new SumTask(0, 0) {
+			@Override
+			protected Long compute() {
+				return forkAndJoin(Arrays.asList(new SumTask(0, -1), sibling)).get(0);
+			}
+		});
+		service.execute();
+
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			throw new AssertionError("Cancellation expected");
+		} catch (CancellationException ignored) {
+		}
+		assertThat(sibling.isCancelled(), is(true));
+		assertThat(ran.get(), is(false));
+	}
+
+	private class SumTask extends ForkJoinAsyncTask<Long> {
+		private final long from;
+		private final long to;
+
+		SumTask(long from, long to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public String getName() {
+			return "SumTask";
+		}
+
+		@Override
+		protected Long compute() {
+			threads.add(Thread.currentThread());
+			if (Math.abs(to - from) > 1 << 14) {
+				long middle = from + (to - from) / 2;
+				long sum = 0;
+				for (Long part : forkAndJoin(Arrays.asList(new SumTask(from, middle),
+				                                           new SumTask(middle, to)))) {
+					sum += part;
+				}
+				return sum;
+			} else if (to < from) {
+				throw new CancellationException();
+			}
+			long sum = 0;
+			for (long i = from; i < to; i++) {
+				sum += i;
+			}
+			return sum;
+		}
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fr.coppernic.framework.art;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+
+public class HashedWheelTimerTest {
+
+	private HashedWheelTimer timer;
+
+	@Before
+	public void before() {
+		// Small wheel so that some tasks need several rounds
+		timer = new HashedWheelTimer("HashedWheelTimerTest", 5, TimeUnit.MILLISECONDS, 8);
+	}
+
+	@After
+	public void after() {
+		timer.dispose();
+	}
+
+	@Test
+	public void expireAfterDelay() throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(1);
+		long start = System.nanoTime();
+		timer.schedule(new CountDownTask(latch), 100, TimeUnit.MILLISECONDS);
+		assertThat(latch.await(1, TimeUnit.SECONDS), is(true));
+		long elapsedMs = (System.nanoTime() - start) / 1000000;
+		assertThat(elapsedMs, greaterThanOrEqualTo(100L));
+	}
+
+	@Test
+	public void cancelledTaskIsNotExecuted() throws InterruptedException {
+		final AtomicInteger count = new AtomicInteger();
+		HashedWheelTimer.TimerTask task = new HashedWheelTimer.TimerTask() {
+			@Override
+			public void run() {
+				count.incrementAndGet();
+			}
+		};
+		timer.schedule(task, 20, TimeUnit.MILLISECONDS);
+		assertThat(task.cancel(), is(true));
+		assertThat(task.cancel(), is(false));
+		assertThat(task.isCancelled(), is(true));
+
+		// Check that other tasks are still executed
+		CountDownLatch latch = new CountDownLatch(1);
+		timer.schedule(new CountDownTask(latch), 60, TimeUnit.MILLISECONDS);
+		assertThat(latch.await(1, TimeUnit.SECONDS), is(true));
+		assertThat(count.get(), is(0));
+	}
+
+	@Test
+	public void manyTasks() throws InterruptedException {
+		CountDownLatch latch = new CountDownLatch(1000);
+		for (int i = 0; i < 1000; i++) {
+			timer.schedule(new CountDownTask(latch), i % 50, TimeUnit.MILLISECONDS);
+		}
+		assertThat(latch.await(2, TimeUnit.SECONDS), is(true));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void cannotScheduleTwice() {
+		CountDownTask task = new CountDownTask(new CountDownLatch(1));
+		timer.schedule(task, 10, TimeUnit.MILLISECONDS);
+		timer.schedule(task, 10, TimeUnit.MILLISECONDS);
+	}
+
+	private static class CountDownTask extends HashedWheelTimer.TimerTask {
+		private final CountDownLatch latch;
+
+		CountDownTask(CountDownLatch latch) {
+			this.latch = latch;
+		}
+
+		@Override
+		public void run() {
+			latch.countDown();
+		}
+	}
+}
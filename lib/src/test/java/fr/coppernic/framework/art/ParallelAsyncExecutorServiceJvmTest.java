@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fr.coppernic.framework.art;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import fr.coppernic.framework.art.AsyncExecutor.RetCode;
+import fr.coppernic.framework.utils.core.CpcResult.RESULT;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * {@link ParallelAsyncExecutorService} on the plain JVM backend, see
+ * {@link ParallelAsyncExecutorServiceTest} for the looper backend.
+ */
+public class ParallelAsyncExecutorServiceJvmTest {
+
+	private ExecutorDispatcher dispatcher;
+	private ParallelAsyncExecutorService<RESULT, AsyncRunnableTask<RESULT>> service;
+	private ExecutorFixture.Listener listener;
+
+	@Before
+	public void before() {
+		dispatcher = ExecutorDispatcher.newPool("ParallelAsyncExecutorServiceJvmTest", 2);
+		service = new ParallelAsyncExecutorService<>(dispatcher, 2);
+		listener = new ExecutorFixture.Listener();
+		service.setListener(listener);
+	}
+
+	@After
+	public void after() {
+		dispatcher.quit();
+	}
+
+	@Test
+	public void cancelSuiteWaitsForOtherLanes() throws InterruptedException {
+		BlockingTask running = new BlockingTask();
+		AsyncRunnableTaskTest cancelling = new AsyncRunnableTaskTest();
+		cancelling.setTimeToSleep(0);
+		cancelling.setCancelOnResult(true);
+		cancelling.setResult(RESULT.CANCELLED);
+		service.add(running);
+		service.add(cancelling);
+		assertThat(service.execute(), is(RetCode.OK));
+		assertThat(running.started.await(5, TimeUnit.SECONDS), is(true));
+
+		// Suite is cancelled, but it waits for the task running on the other lane
+		assertThat(listener.cancelled.await(200, TimeUnit.MILLISECONDS), is(false));
+		assertThat(service.getState(), is(AsyncRunnable.State.CANCELLED));
+		assertThat(running.isCancelled(), is(true));
+
+		running.release.countDown();
+		assertThat(listener.cancelled.await(5, TimeUnit.SECONDS), is(true));
+		// Both tasks have been reported before the suite
+		assertThat(listener.before.get(), is(2));
+		assertThat(listener.after.get(), is(1));
+		assertThat(listener.failed.get(), is(1));
+		assertThat(service.getState(), is(AsyncRunnable.State.DONE));
+		// Dispatcher is still usable, only dispose() stops it
+		assertThat(dispatcher.isAlive(), is(true));
+	}
+
+	/**
+	 * Task running until it is released
+	 */
+	private static class BlockingTask extends AsyncRunnableTask<RESULT> {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		@Override
+		public String getName() {
+			return "BlockingTask";
+		}
+
+		@Override
+		public void execute() {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+			onDone(RESULT.OK);
+		}
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fr.coppernic.framework.art;
+
+import android.os.HandlerThread;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.Shadows;
+
+import fr.coppernic.framework.art.AsyncExecutor.RetCode;
+import fr.coppernic.framework.robolectric.RobolectricTest;
+import fr.coppernic.framework.utils.core.CpcResult.RESULT;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class ParallelAsyncExecutorServiceTest extends RobolectricTest {
+
+	private static final String TAG = "ParallelExecutorTest";
+	private HandlerThread[] threads;
+	private ParallelAsyncExecutorService<RESULT, AsyncRunnableTask<RESULT>> service;
+	private AsyncExecutorListener<RESULT, AsyncRunnableTask<RESULT>> listener;
+
+	@Before
+	public void before() {
+		threads = new HandlerThread[]{new HandlerThread(TAG + "0"), new HandlerThread(TAG + "1")};
+		service = new ParallelAsyncExecutorService<>(threads);
+		//noinspection unchecked
+		listener = mock(AsyncExecutorListener.class);
+		service.setListener(listener);
+	}
+
+	@After
+	public void after() {
+		for (HandlerThread thread : threads) {
+			thread.quit();
+		}
+		threads = null;
+	}
+
+	@Test
+	public void executeOnAllLanes() {
+		AsyncRunnableTaskTest[] tasks = new AsyncRunnableTaskTest[5];
+		for (int i = 0; i < tasks.length; i++) {
+			tasks[i] = new AsyncRunnableTaskTest();
+			tasks[i].setTimeToSleep(0);
+			service.add(tasks[i]);
+		}
+		assertThat(service.execute(), is(RetCode.OK));
+		assertThat(service.isExecuting(), is(true));
+		runLoopers();
+
+		for (AsyncRunnableTaskTest task : tasks) {
+			verify(listener, times(1)).beforeTask(task);
+			verify(listener, times(1)).afterTask(task, RESULT.OK);
+		}
+		verify(listener, times(1)).onDone();
+		assertThat(service.getState(), is(AsyncRunnable.State.DONE));
+	}
+
+	@Test
+	public void executeWithoutTask() {
+		assertThat(service.execute(), is(RetCode.NO_TASKS));
+		verify(listener, times(1)).onDone();
+	}
+
+	@Test
+	public void pauseAndResume() {
+		for (int i = 0; i < 4; i++) {
+			AsyncRunnableTaskTest task = new AsyncRunnableTaskTest();
+			task.setTimeToSleep(0);
+			service.add(task);
+		}
+		service.execute();
+		assertThat(service.pause(), is(RetCode.OK));
+		runLoopers();
+		verify(listener, times(1)).onPaused();
+		verify(listener, times(2)).afterTask(any(AsyncRunnableTask.class), any(RESULT.class));
+		verify(listener, never()).onDone();
+
+		assertThat(service.resume(), is(RetCode.OK));
+		runLoopers();
+		verify(listener, times(4)).afterTask(any(AsyncRunnableTask.class), any(RESULT.class));
+		verify(listener, times(1)).onDone();
+	}
+
+	@Test
+	public void disposeWhileIdle() {
+		service.dispose();
+		service.add(new AsyncRunnableTaskTest());
+		assertThat(service.execute(), is(RetCode.WRONG_STATE));
+		verify(listener, never()).onCancelled();
+	}
+
+	private void runLoopers() {
+		// A task done on a lane may dispatch the next one on any lane
+		for (int i = 0; i < 4; i++) {
+			for (HandlerThread thread : threads) {
+				Shadows.shadowOf(thread.getLooper()).idle();
+			}
+		}
+	}
+}
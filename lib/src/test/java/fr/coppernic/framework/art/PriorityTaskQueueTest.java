@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fr.coppernic.framework.art;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static fr.coppernic.framework.art.AsyncExecutor.PRIORITY_HIGH;
+import static fr.coppernic.framework.art.AsyncExecutor.PRIORITY_LOW;
+import static fr.coppernic.framework.art.AsyncExecutor.PRIORITY_NORMAL;
+import static fr.coppernic.framework.art.AsyncExecutor.PRIORITY_URGENT;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.fail;
+
+public class PriorityTaskQueueTest {
+
+	private PriorityTaskQueue<String> queue;
+
+	@Before
+	public void before() {
+		queue = new PriorityTaskQueue<>();
+	}
+
+	@Test
+	public void strictServesHighestLevelFirst() {
+		queue.configure(PriorityTaskQueue.Selection.STRICT, 0);
+		queue.add("low1", PRIORITY_LOW);
+		queue.add("normal1");
+		queue.add("low2", PRIORITY_LOW);
+		queue.add("urgent", PRIORITY_URGENT);
+		queue.add("normal2");
+		queue.add("high", PRIORITY_HIGH);
+
+		assertThat(queue, contains("urgent", "high", "normal1", "normal2", "low1", "low2"));
+		assertThat(drain(), contains("urgent", "high", "normal1", "normal2", "low1", "low2"));
+		assertThat(queue.poll(), is(nullValue()));
+	}
+
+	@Test
+	public void agingPreventsStarvation() {
+		queue.configure(PriorityTaskQueue.Selection.STRICT, 3);
+		queue.add("low", PRIORITY_LOW);
+		for (int i = 0; i < 10; i++) {
+			queue.add("urgent" + i, PRIORITY_URGENT);
+		}
+		List<String> order = drain();
+		assertThat(order.get(3), is("low"));
+	}
+
+	@Test
+	public void weightedSharesLevels() {
+		queue.configure(PriorityTaskQueue.Selection.WEIGHTED, 0);
+		for (int i = 0; i < 100; i++) {
+			queue.add("low", PRIORITY_LOW);
+			queue.add("urgent", PRIORITY_URGENT);
+		}
+		// Weights are 1 and 8 : one low task every 9 tasks
+		int low = 0;
+		for (int i = 0; i < 90; i++) {
+			if (queue.poll().equals("low")) {
+				low++;
+			}
+		}
+		assertThat(low, is(10));
+	}
+
+	@Test
+	public void clearEmptiesAllLevels() {
+		queue.add("a", PRIORITY_LOW);
+		queue.add("b", PRIORITY_URGENT);
+		assertThat(queue.size(), is(2));
+		queue.clear();
+		assertThat(queue.isEmpty(), is(true));
+	}
+
+	@Test
+	public void boundedQueue() throws InterruptedException {
+		queue.setCapacity(2);
+		assertThat(queue.offer("a", PRIORITY_LOW), is(true));
+		assertThat(queue.offer("b", PRIORITY_URGENT), is(true));
+		assertThat(queue.offer("c", PRIORITY_URGENT), is(false));
+		assertThat(queue.reserve(10, TimeUnit.MILLISECONDS), is(false));
+		assertThat(queue.remainingCapacity(), is(0));
+
+		assertThat(queue.pollOldest(), is("a"));
+		assertThat(queue.offer("c", PRIORITY_URGENT), is(true));
+		assertThat(drain(), contains("b", "c"));
+		assertThat(queue.remainingCapacity(), is(2));
+	}
+
+	@Test
+	public void takeOldestPlaceUpToPriority() {
+		queue.setCapacity(2);
+		queue.add("a", PRIORITY_NORMAL);
+		queue.add("b", PRIORITY_URGENT);
+		assertThat(queue.takeOldestPlace(PRIORITY_LOW), is(nullValue()));
+		assertThat(queue.takeOldestPlace(PRIORITY_URGENT), is("a"));
+		// Place is kept for the caller
+		assertThat(queue.reserve(), is(false));
+		queue.addReserved("c", PRIORITY_LOW);
+		assertThat(drain(), contains("b", "c"));
+	}
+
+	@Test
+	public void reserveWaitsForRoom() throws InterruptedException {
+		queue.setCapacity(1);
+		queue.add("a", PRIORITY_LOW);
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException ignore) {
+				}
+				queue.poll();
+			}
+		}).start();
+		assertThat(queue.reserve(5, TimeUnit.SECONDS), is(true));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectWrongPriority() {
+		queue.add("a", PRIORITY_URGENT + 1);
+	}
+
+	@Test
+	public void wrongPriorityReleasesReservedPlace() {
+		queue.setCapacity(1);
+		assertThat(queue.reserve(), is(true));
+		try {
+			queue.addReserved("a", PRIORITY_URGENT + 1);
+			fail();
+		} catch (IllegalArgumentException ignore) {
+		}
+		assertThat(queue.remainingCapacity(), is(1));
+	}
+
+	private List<String> drain() {
+		List<String> list = new ArrayList<>();
+		String s;
+		while ((s = queue.poll()) != null) {
+			list.add(s);
+		}
+		return list;
+	}
+}
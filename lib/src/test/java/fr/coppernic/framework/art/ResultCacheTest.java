@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fr.coppernic.framework.art;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class ResultCacheTest {
+
+	@Test
+	public void evictLeastRecentlyUsed() {
+		ResultCache<String> cache = new ResultCache<>(2, 0, TimeUnit.SECONDS);
+		cache.put("a", "A");
+		cache.put("b", "B");
+		// a becomes most recently used
+		assertThat(cache.get("a").getValue(), is("A"));
+		cache.put("c", "C");
+
+		assertThat(cache.get("b"), is(nullValue()));
+		assertThat(cache.get("a").getValue(), is("A"));
+		assertThat(cache.get("c").getValue(), is("C"));
+		assertThat(cache.size(), is(2));
+		assertThat(cache.getEvictionCount(), is(1L));
+		assertThat(cache.getHitCount(), is(3L));
+		assertThat(cache.getMissCount(), is(1L));
+		assertThat(cache.getHitRate(), is(0.75));
+	}
+
+	@Test
+	public void expireAfterTtl() throws InterruptedException {
+		ResultCache<String> cache = new ResultCache<>(10, 20, TimeUnit.MILLISECONDS);
+		cache.put("a", null);
+		assertThat(cache.get("a").getValue(), is(nullValue()));
+		Thread.sleep(40);
+		assertThat(cache.get("a"), is(nullValue()));
+		assertThat(cache.size(), is(0));
+	}
+
+	@Test
+	public void invalidate() {
+		ResultCache<String> cache = new ResultCache<>(10, 0, TimeUnit.SECONDS);
+		cache.put("a", "A");
+		cache.invalidate("a");
+		assertThat(cache.get("a"), is(nullValue()));
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fr.coppernic.framework.art;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class RetryPolicyTest {
+
+	private static final RetryPolicy.Condition<Integer> NEGATIVE =
+		new RetryPolicy.Condition<Integer>() {
+			@Override
+			public boolean shouldRetry(Integer result) {
+				return result < 0;
+			}
+		};
+
+	@Test
+	public void exponentialDelay() {
+		RetryPolicy<Integer> policy = new RetryPolicy<Integer>(10, 100, TimeUnit.MILLISECONDS)
+			.setMaxDelay(1, TimeUnit.SECONDS);
+		assertThat(policy.getDelayMs(0), is(100L));
+		assertThat(policy.getDelayMs(1), is(200L));
+		assertThat(policy.getDelayMs(3), is(800L));
+		assertThat(policy.getDelayMs(4), is(1000L));
+		assertThat(policy.getDelayMs(30), is(1000L));
+	}
+
+	@Test
+	public void jitter() {
+		RetryPolicy<Integer> policy = new RetryPolicy<Integer>(10, 100, TimeUnit.MILLISECONDS)
+			.setJitter(0.5);
+		for (int i = 0; i < 100; i++) {
+			long delay = policy.getDelayMs(1);
+			assertThat(delay, greaterThanOrEqualTo(100L));
+			assertThat(delay, lessThanOrEqualTo(200L));
+		}
+	}
+
+	@Test
+	public void shouldRetry() {
+		RetryPolicy<Integer> policy = new RetryPolicy<Integer>(3, 10, TimeUnit.MILLISECONDS);
+		assertThat(policy.shouldRetry(0, -1), is(false));
+		policy.setCondition(NEGATIVE);
+		assertThat(policy.shouldRetry(0, 1), is(false));
+		assertThat(policy.shouldRetry(0, -1), is(true));
+		assertThat(policy.shouldRetry(1, -1), is(true));
+		// Third attempt is the last one
+		assertThat(policy.shouldRetry(2, -1), is(false));
+	}
+}
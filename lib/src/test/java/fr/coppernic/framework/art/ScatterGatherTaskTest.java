@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fr.coppernic.framework.art;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.fail;
+
+public class ScatterGatherTaskTest {
+
+	private static final ScatterGatherTask.Reducer<Integer> SUM =
+		new ScatterGatherTask.Reducer<Integer>() {
+			@Override
+			public Integer reduce(Integer reduced, Integer result) {
+				return reduced + result;
+			}
+		};
+
+	private ExecutorDispatcher dispatcher;
+	private ExecutorDispatcher readers;
+	private AsyncExecutorService<Integer, AsyncRunnableTask<Integer>> service;
+
+	@Before
+	public void before() {
+		dispatcher = ExecutorDispatcher.newSingleThread("ScatterGatherTaskTest");
+		readers = ExecutorDispatcher.newPool("ScatterGatherTaskTest-readers", 4);
+		service = new AsyncExecutorService<>(dispatcher);
+		service.setStreaming(true);
+		service.execute();
+	}
+
+	@After
+	public void after() {
+		readers.quit();
+		dispatcher.quit();
+	}
+
+	@Test
+	public void quorumCancelsStragglers() throws Exception {
+		List<Reader> children = Arrays.asList(new Reader(1, 10), new Reader(10, 50),
+		                                      new Reader(100, 2000), new Reader(1000, 2000));
+		long start = System.nanoTime();
+		TaskFuture<Integer> future = service.submit(
+			new ScatterGatherTask<>(children, readers, 2, 0, SUM));
+
+		assertThat(future.get(5, TimeUnit.SECONDS), is(11));
+		assertThat((System.nanoTime() - start) / 1000000, lessThan(1000L));
+		assertThat(children.get(2).getState(), is(AsyncRunnable.State.CANCELLED));
+		assertThat(children.get(3).getState(), is(AsyncRunnable.State.CANCELLED));
+	}
+
+	@Test
+	public void all() throws Exception {
+		List<Reader> children = Arrays.asList(new Reader(1, 30), new Reader(2, 10),
+		                                      new Reader(3, 20));
+		TaskFuture<Integer> future = service.submit(
+			new ScatterGatherTask<>(children, readers, ScatterGatherTask.ALL, 0, SUM));
+		assertThat(future.get(5, TimeUnit.SECONDS), is(6));
+	}
+
+	@Test
+	public void resetGathersAgain() throws Exception {
+		List<Reader> children = Arrays.asList(new Reader(1, 10), new Reader(2, 20));
+		ScatterGatherTask<Integer> task =
+			new ScatterGatherTask<>(children, readers, ScatterGatherTask.ALL, 0, SUM);
+		assertThat(service.submit(task).get(5, TimeUnit.SECONDS), is(3));
+
+		task.reset();
+		assertThat(children.get(0).getState(), is(AsyncRunnable.State.IDLE));
+		assertThat(task.getDoneCount(), is(0));
+		assertThat(service.submit(task).get(5, TimeUnit.SECONDS), is(3));
+	}
+
+	@Test
+	public void resetRejectedWhileStragglersRun() throws Exception {
+		final List<Reader> children = Arrays.asList(new Reader(1, 10), new Reader(2, 500));
+		ScatterGatherTask<Integer> task = new ScatterGatherTask<>(children, readers, 1, 0, SUM);
+		assertThat(service.submit(task).get(5, TimeUnit.SECONDS), is(1));
+
+		// Cancelled straggler is still sleeping
+		try {
+			task.reset();
+			fail("Reset shall be rejected");
+		} catch (IllegalStateException ignored) {
+		}
+		assertThat(task.getState(), is(AsyncRunnable.State.DONE));
+		assertThat(children.get(0).getState(), is(AsyncRunnable.State.DONE));
+		assertThat(task.getDoneCount(), is(1));
+
+		await().atMost(5, TimeUnit.SECONDS).until(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return !children.get(1).isRunElsewhere();
+			}
+		});
+		task.reset();
+		assertThat(children.get(1).getState(), is(AsyncRunnable.State.IDLE));
+		assertThat(task.getDoneCount(), is(0));
+	}
+
+	@Test(expected = CancellationException.class)
+	public void unreachableQuorum() throws Exception {
+		Reader failing = new Reader(1, 10);
+		failing.fail = true;
+		List<Reader> children = Arrays.asList(failing, new Reader(2, 10));
+		TaskFuture<Integer> future = service.submit(
+			new ScatterGatherTask<>(children, readers, ScatterGatherTask.ALL, 0, SUM));
+		future.get(5, TimeUnit.SECONDS);
+	}
+
+	private static class Reader extends AsyncRunnableTask<Integer> {
+		private final int value;
+		private final long delay;
+		boolean fail = false;
+
+		Reader(int value, long delay) {
+			this.value = value;
+			this.delay = delay;
+		}
+
+		@Override
+		public String getName() {
+			return "Reader";
+		}
+
+		@Override
+		public void execute() {
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (fail) {
+				onCancel(null);
+			} else {
+				onDone(value);
+			}
+		}
+	}
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fr.coppernic.framework.art;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class TaskFutureTest {
+
+	private static final TaskFuture.Transform<Integer, Integer> TWICE =
+		new TaskFuture.Transform<Integer, Integer>() {
+			@Override
+			public Integer apply(Integer value) {
+				return value * 2;
+			}
+		};
+
+	@Test
+	public void callbacks() {
+		TaskFuture<Integer> future = new TaskFuture<>();
+		final AtomicReference<Integer> before = new AtomicReference<>();
+		final AtomicReference<Integer> after = new AtomicReference<>();
+		future.addCallback(new Recorder(before));
+		assertThat(before.get(), is(nullValue()));
+
+		assertThat(future.complete(1), is(true));
+		assertThat(future.complete(2), is(false));
+		assertThat(future.completeCancelled(3), is(false));
+		assertThat(before.get(), is(1));
+		// Called immediately once complete
+		future.addCallback(new Recorder(after));
+		assertThat(after.get(), is(1));
+	}
+
+	@Test
+	public void get() throws Exception {
+		TaskFuture<Integer> future = new TaskFuture<>();
+		try {
+			future.get(10, TimeUnit.MILLISECONDS);
+			throw new AssertionError("Timeout expected");
+		} catch (TimeoutException ignored) {
+		}
+		future.complete(42);
+		assertThat(future.isDone(), is(true));
+		assertThat(future.get(), is(42));
+	}
+
+	@Test(expected = CancellationException.class)
+	public void getCancelled() throws Exception {
+		TaskFuture<Integer> future = new TaskFuture<>();
+		assertThat(future.cancel(false), is(true));
+		assertThat(future.isCancelled(), is(true));
+		future.get();
+	}
+
+	@Test
+	public void failed() throws Exception {
+		TaskFuture<Integer> future = new TaskFuture<>();
+		AtomicReference<Integer> recorded = new AtomicReference<>();
+		future.addCallback(new Recorder(recorded));
+		TimeoutException cause = new TimeoutException();
+		assertThat(future.completeExceptionally(cause, 3), is(true));
+		assertThat(future.complete(1), is(false));
+		assertThat(future.isDone(), is(true));
+		assertThat(future.isCancelled(), is(false));
+		assertThat(future.getFailure(), is((Throwable) cause));
+		// Failure is a cancellation for callbacks
+		assertThat(recorded.get(), is(-1));
+		assertThat(future.getNow(), is(3));
+		try {
+			future.get();
+			throw new AssertionError("Failure expected");
+		} catch (ExecutionException e) {
+			assertThat(e.getCause(), is((Throwable) cause));
+		}
+	}
+
+	@Test
+	public void then() throws Exception {
+		TaskFuture<Integer> future = new TaskFuture<>();
+		TaskFuture<Integer> next = future.then(TWICE).then(TWICE);
+		assertThat(next.isDone(), is(false));
+		future.complete(3);
+		assertThat(next.get(), is(12));
+
+		TaskFuture<Integer> cancelled = new TaskFuture<>();
+		next = cancelled.then(TWICE);
+		cancelled.completeCancelled(0);
+		assertThat(next.isCancelled(), is(true));
+	}
+
+	@Test
+	public void thenCompose() throws Exception {
+		TaskFuture<Integer> future = new TaskFuture<>();
+		final TaskFuture<Integer> step = new TaskFuture<>();
+		TaskFuture<Integer> next = future.thenCompose(
+			new TaskFuture.Transform<Integer, TaskFuture<Integer>>() {
+				@Override
+				public TaskFuture<Integer> apply(Integer value) {
+					return step;
+				}
+			});
+		future.complete(1);
+		assertThat(next.isDone(), is(false));
+		step.complete(2);
+		assertThat(next.get(), is(2));
+	}
+
+	@Test
+	public void thenComposeWithoutFuture() {
+		TaskFuture<Integer> future = new TaskFuture<>();
+		TaskFuture<Integer> next = future.thenCompose(
+			new TaskFuture.Transform<Integer, TaskFuture<Integer>>() {
+				@Override
+				public TaskFuture<Integer> apply(Integer value) {
+					return null;
+				}
+			});
+		assertThat(future.complete(1), is(true));
+		assertThat(next.isCancelled(), is(true));
+	}
+
+	@Test
+	public void throwingCallback() {
+		TaskFuture<Integer> future = new TaskFuture<>();
+		final AtomicReference<Integer> after = new AtomicReference<>();
+		future.addCallback(new Recorder(new AtomicReference<Integer>()) {
+			@Override
+			public void onDone(Integer result) {
+				throw new IllegalStateException("Callback failure");
+			}
+		});
+		future.addCallback(new Recorder(after));
+
+		// Completing thread does not see the exception, next callbacks are called
+		assertThat(future.complete(1), is(true));
+		assertThat(after.get(), is(1));
+	}
+
+	@Test
+	public void combine() throws Exception {
+		TaskFuture<Integer> a = new TaskFuture<>();
+		TaskFuture<String> b = new TaskFuture<>();
+		TaskFuture<String> combined = TaskFuture.combine(
+			a, b, new TaskFuture.Combiner<Integer, String, String>() {
+				@Override
+				public String combine(Integer i, String s) {
+					return s + i;
+				}
+			});
+		b.complete("n");
+		assertThat(combined.isDone(), is(false));
+		a.complete(1);
+		assertThat(combined.get(), is("n1"));
+	}
+
+	@Test
+	public void allOf() throws Exception {
+		TaskFuture<Integer> a = new TaskFuture<>();
+		TaskFuture<Integer> b = new TaskFuture<>();
+		TaskFuture<List<Integer>> all = TaskFuture.allOf(Arrays.asList(a, b));
+		b.complete(2);
+		assertThat(all.isDone(), is(false));
+		a.complete(1);
+		assertThat(all.get(), contains(1, 2));
+
+		TaskFuture<Integer> c = new TaskFuture<>();
+		all = TaskFuture.allOf(Arrays.asList(c, new TaskFuture<Integer>()));
+		c.completeCancelled(null);
+		assertThat(all.isCancelled(), is(true));
+	}
+
+	@Test
+	public void anyOf() throws Exception {
+		TaskFuture<Integer> a = new TaskFuture<>();
+		TaskFuture<Integer> b = new TaskFuture<>();
+		TaskFuture<Integer> any = TaskFuture.anyOf(Arrays.asList(a, b));
+		a.completeCancelled(null);
+		assertThat(any.isDone(), is(false));
+		b.complete(2);
+		a.complete(1);
+		assertThat(any.get(), is(2));
+
+		any = TaskFuture.anyOf(Arrays.asList(new TaskFuture<Integer>()));
+		any.cancel(false);
+		assertThat(any.isCancelled(), is(true));
+	}
+
+	private static class Recorder implements TaskFuture.Callback<Integer> {
+		private final AtomicReference<Integer> ref;
+
+		Recorder(AtomicReference<Integer> ref) {
+			this.ref = ref;
+		}
+
+		@Override
+		public void onDone(Integer result) {
+			ref.set(result);
+		}
+
+		@Override
+		public void onCancelled(Integer param) {
+			ref.set(-1);
+		}
+	}
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fr.coppernic.framework.art;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class TaskJournalTest {
+
+	private static final TaskJournal.Codec<StepTask> CODEC = new TaskJournal.Codec<StepTask>() {
+		@Override
+		public byte[] encode(StepTask task) {
+			return ByteBuffer.allocate(8).putInt(task.value).putInt(task.step).array();
+		}
+
+		@Override
+		public StepTask decode(byte[] data) {
+			ByteBuffer buffer = ByteBuffer.wrap(data);
+			StepTask task = new StepTask(buffer.getInt());
+			task.step = buffer.getInt();
+			return task;
+		}
+	};
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void recoverUnfinishedTasks() throws IOException {
+		File file = folder.newFile();
+		TaskJournal<StepTask> journal = new TaskJournal<>(file, CODEC);
+		StepTask t1 = new StepTask(1);
+		StepTask t2 = new StepTask(2);
+		StepTask t3 = new StepTask(3);
+		journal.onTaskQueued(t1);
+		journal.onTaskQueued(t2);
+		journal.onTaskQueued(t3);
+		journal.onTaskStarted(t1);
+		journal.onTaskFinished(t1, false);
+		journal.onTaskStarted(t2);
+		// First step done, task waits for more data
+		t2.run();
+		journal.onTaskRunEnded(t2);
+		journal.dispose();
+
+		journal = new TaskJournal<>(file, CODEC);
+		List<StepTask> tasks = journal.recover();
+		assertThat(tasks.size(), is(2));
+		assertThat(tasks.get(0).value, is(2));
+		assertThat(tasks.get(0).step, is(1));
+		assertThat(tasks.get(1).value, is(3));
+		assertThat(tasks.get(1).step, is(0));
+		assertThat(journal.recover().size(), is(0));
+
+		// Recovered tasks are finished in the same journal
+		journal.onTaskFinished(tasks.get(0), false);
+		journal.dispose();
+		journal = new TaskJournal<>(file, CODEC);
+		tasks = journal.recover();
+		assertThat(tasks.size(), is(1));
+		assertThat(tasks.get(0).value, is(3));
+		journal.dispose();
+	}
+
+	@Test
+	public void emptyJournalStartsAgain() throws IOException {
+		File file = folder.newFile();
+		TaskJournal<StepTask> journal = new TaskJournal<>(file, CODEC, 64);
+		// Small mapping, grown on demand
+		for (int i = 0; i < 100; i++) {
+			StepTask task = new StepTask(i);
+			journal.onTaskQueued(task);
+			journal.onTaskFinished(task, i % 2 == 0);
+		}
+		StepTask last = new StepTask(100);
+		journal.onTaskQueued(last);
+		journal.dispose();
+
+		journal = new TaskJournal<>(file, CODEC);
+		List<StepTask> tasks = journal.recover();
+		assertThat(tasks.size(), is(1));
+		assertThat(tasks.get(0).value, is(100));
+		journal.dispose();
+	}
+
+	@Test
+	public void compactUnderSteadyLoad() throws IOException {
+		File file = folder.newFile();
+		TaskJournal<StepTask> journal = new TaskJournal<>(file, CODEC, 256);
+		StepTask waiting = new StepTask(-1);
+		journal.onTaskQueued(waiting);
+		journal.onTaskStarted(waiting);
+		waiting.run();
+		journal.onTaskRunEnded(waiting);
+		// Journal never empty : it cannot start again, it is compacted instead of growing
+		for (int i = 0; i < 10000; i++) {
+			StepTask task = new StepTask(i);
+			journal.onTaskQueued(task);
+			journal.onTaskFinished(task, false);
+		}
+		StepTask last = new StepTask(10000);
+		journal.onTaskQueued(last);
+		journal.dispose();
+		assertThat(file.length(), is(256L));
+
+		journal = new TaskJournal<>(file, CODEC);
+		List<StepTask> tasks = journal.recover();
+		assertThat(tasks.size(), is(2));
+		assertThat(tasks.get(0).value, is(-1));
+		assertThat(tasks.get(0).step, is(1));
+		assertThat(tasks.get(1).value, is(10000));
+		journal.dispose();
+	}
+
+	@Test
+	public void tornRecordIsIgnored() throws IOException {
+		File file = folder.newFile();
+		TaskJournal<StepTask> journal = new TaskJournal<>(file, CODEC, 1024);
+		journal.onTaskQueued(new StepTask(1));
+		journal.onTaskQueued(new StepTask(2));
+		journal.dispose();
+
+		// Corrupt the payload of the second record
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.seek(8 + 29 + 20);
+		raf.write(0xFF);
+		raf.close();
+
+		journal = new TaskJournal<>(file, CODEC);
+		List<StepTask> tasks = journal.recover();
+		assertThat(tasks.size(), is(1));
+		assertThat(tasks.get(0).value, is(1));
+		journal.dispose();
+	}
+
+	@Test
+	public void replayInExecutor() throws Exception {
+		File file = folder.newFile();
+		TaskJournal<StepTask> journal = new TaskJournal<>(file, CODEC);
+		for (int i = 1; i <= 2; i++) {
+			// Only last step left
+			StepTask task = new StepTask(i);
+			task.step = 1;
+			journal.onTaskQueued(task);
+		}
+		journal.dispose();
+
+		ExecutorDispatcher dispatcher = ExecutorDispatcher.newSingleThread("TaskJournalTest");
+		try {
+			journal = new TaskJournal<>(file, CODEC);
+			AsyncExecutorService<Integer, StepTask> service = new AsyncExecutorService<>(dispatcher);
+			assertThat(journal.replay(service), is(2));
+			service.setObserver(journal);
+			StepTask task = new StepTask(3);
+			task.step = 1;
+			TaskFuture<Integer> future = service.submit(task);
+			service.execute();
+			assertThat(future.get(5, TimeUnit.SECONDS), is(3));
+			journal.dispose();
+		} finally {
+			dispatcher.quit();
+		}
+
+		journal = new TaskJournal<>(file, CODEC);
+		assertThat(journal.recover().size(), is(0));
+		journal.dispose();
+	}
+
+	/**
+	 * Task done at second step
+	 */
+	private static class StepTask extends AsyncRunnableTask<Integer> {
+		final int value;
+		int step = 0;
+
+		StepTask(int value) {
+			this.value = value;
+		}
+
+		@Override
+		public String getName() {
+			return "StepTask";
+		}
+
+		@Override
+		public void execute() {
+			if (step++ > 0) {
+				onDone(value);
+			}
+		}
+	}
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fr.coppernic.framework.art;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import fr.coppernic.framework.utils.core.CpcResult.RESULT;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class TaskPoolTest {
+
+	private static final TaskPool.Factory<AsyncRunnableTaskTest> FACTORY =
+		new TaskPool.Factory<AsyncRunnableTaskTest>() {
+			@Override
+			public AsyncRunnableTaskTest create() {
+				AsyncRunnableTaskTest task = new AsyncRunnableTaskTest();
+				task.setTimeToSleep(0);
+				return task;
+			}
+		};
+
+	private static final AsyncRunnableListener<RESULT> LISTENER =
+		new AsyncRunnableListener<RESULT>() {
+			@Override
+			public void onDone(AsyncRunnable<RESULT> task, RESULT param) {
+			}
+
+			@Override
+			public void onCancel(AsyncRunnable<RESULT> task, RESULT param) {
+			}
+		};
+
+	@Test
+	public void recycledTaskRunsAgain() {
+		TaskPool<AsyncRunnableTaskTest> pool = new TaskPool<>(FACTORY, 4);
+		AsyncRunnableTaskTest task = pool.obtain();
+		task.setListener(LISTENER);
+		task.run();
+		assertThat(task.getState(), is(AsyncRunnable.State.DONE));
+
+		pool.recycle(task);
+		assertThat(pool.size(), is(1));
+		AsyncRunnableTaskTest again = pool.obtain();
+		assertThat(again, sameInstance(task));
+		assertThat(again.getState(), is(AsyncRunnable.State.IDLE));
+		assertThat(again.canRun(), is(true));
+		again.run();
+		assertThat(again.getState(), is(AsyncRunnable.State.DONE));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void cannotRecyclePendingTask() {
+		TaskPool<AsyncRunnableTask<RESULT>> pool = new TaskPool<>(
+			new TaskPool.Factory<AsyncRunnableTask<RESULT>>() {
+				@Override
+				public AsyncRunnableTask<RESULT> create() {
+					return new AsyncRunnableTask<RESULT>() {
+						@Override
+						public String getName() {
+							return "Waiting";
+						}
+
+						@Override
+						public void execute() {
+							// Waits for data
+						}
+					};
+				}
+			}, 1);
+		AsyncRunnableTask<RESULT> task = pool.obtain();
+		task.run();
+		pool.recycle(task);
+	}
+
+	@Test
+	public void periodicSuiteReusesTasks() throws Exception {
+		ExecutorDispatcher dispatcher = ExecutorDispatcher.newSingleThread("TaskPoolTest");
+		final TaskPool<AsyncRunnableTaskTest> pool = new TaskPool<>(FACTORY, 2);
+		Set<AsyncRunnableTaskTest> instances =
+			Collections.newSetFromMap(new IdentityHashMap<AsyncRunnableTaskTest, Boolean>());
+		try {
+			AsyncExecutorService<RESULT, AsyncRunnableTaskTest> service =
+				new AsyncExecutorService<>(dispatcher);
+			service.setStreaming(true);
+			service.execute();
+			for (int i = 0; i < 100; i++) {
+				AsyncRunnableTaskTest task = pool.obtain();
+				instances.add(task);
+				assertThat(service.submit(task).get(5, TimeUnit.SECONDS), is(RESULT.OK));
+				pool.recycle(task);
+			}
+			service.close();
+		} finally {
+			dispatcher.quit();
+		}
+		assertThat(instances.size(), is(1));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void cannotRecycleTwice() {
+		TaskPool<AsyncRunnableTaskTest> pool = new TaskPool<>(FACTORY, 4);
+		AsyncRunnableTaskTest task = pool.obtain();
+		task.setListener(LISTENER);
+		task.run();
+		pool.recycle(task);
+		pool.recycle(task);
+	}
+
+	@Test
+	public void recycleFromInlineReport() {
+		final TaskPool<AsyncRunnableTaskTest> pool = new TaskPool<>(FACTORY, 4);
+		final AsyncRunnableTaskTest task = pool.obtain();
+		task.setListener(new AsyncRunnableListener<RESULT>() {
+			@Override
+			public void onDone(AsyncRunnable<RESULT> t, RESULT param) {
+				pool.recycle(task);
+			}
+
+			@Override
+			public void onCancel(AsyncRunnable<RESULT> t, RESULT param) {
+			}
+		});
+		// Reported by the calling thread, before run() returns
+		task.run();
+		// Rest of run() did not touch the recycled task
+		assertThat(task.getState(), is(AsyncRunnable.State.IDLE));
+		assertThat(task.getPendingSince(), is(0L));
+		assertThat(pool.obtain(), sameInstance(task));
+	}
+
+	@Test
+	public void recycleWaitsForRun() throws Exception {
+		ExecutorDispatcher dispatcher = ExecutorDispatcher.newThreadPerTask("TaskPoolTest");
+		final TaskPool<SlowTask> pool = new TaskPool<>(new TaskPool.Factory<SlowTask>() {
+			@Override
+			public SlowTask create() {
+				return new SlowTask();
+			}
+		}, 1);
+		final SlowTask task = pool.obtain();
+		final AtomicBoolean returned = new AtomicBoolean();
+		final CountDownLatch recycled = new CountDownLatch(1);
+		task.setListener(new AsyncRunnableListener<RESULT>() {
+			@Override
+			public void onDone(AsyncRunnable<RESULT> t, RESULT param) {
+				// Delivered by another thread while execute() still sleeps
+				pool.recycle(task);
+				returned.set(task.returned);
+				recycled.countDown();
+			}
+
+			@Override
+			public void onCancel(AsyncRunnable<RESULT> t, RESULT param) {
+			}
+		});
+		try {
+			assertThat(dispatcher.post(task), is(true));
+			assertThat(recycled.await(5, TimeUnit.SECONDS), is(true));
+		} finally {
+			dispatcher.quit();
+		}
+		assertThat(returned.get(), is(true));
+	}
+
+	private static class SlowTask extends AsyncRunnableTask<RESULT> {
+		volatile boolean returned = false;
+
+		@Override
+		public String getName() {
+			return "SlowTask";
+		}
+
+		@Override
+		public void execute() {
+			onDone(RESULT.OK);
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+			returned = true;
+		}
+	}
+}
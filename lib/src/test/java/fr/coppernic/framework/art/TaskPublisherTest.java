@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fr.coppernic.framework.art;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fr.coppernic.framework.utils.core.CpcResult.RESULT;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+
+public class TaskPublisherTest {
+
+	private ExecutorDispatcher dispatcher;
+	private TaskPublisher<RESULT, AsyncRunnableTask<RESULT>> publisher;
+	private final AtomicInteger executions = new AtomicInteger();
+
+	@Before
+	public void before() {
+		dispatcher = ExecutorDispatcher.newSingleThread("TaskPublisherTest");
+		publisher = new TaskPublisher<>(
+			new AsyncExecutorService<RESULT, AsyncRunnableTask<RESULT>>(dispatcher));
+	}
+
+	@After
+	public void after() {
+		dispatcher.quit();
+	}
+
+	@Test
+	public void demandThrottlesExecution() throws InterruptedException {
+		for (int i = 0; i < 10; i++) {
+			publisher.add(new CountingTask());
+		}
+		Recorder recorder = new Recorder();
+		publisher.subscribe(recorder);
+		recorder.subscription.request(2);
+
+		assertThat(recorder.await(2), is(true));
+		Thread.sleep(50);
+		// No demand, no execution
+		assertThat(executions.get(), is(2));
+		assertThat(recorder.results.size(), is(2));
+
+		recorder.subscription.request(Long.MAX_VALUE);
+		publisher.close();
+		assertThat(recorder.completed.await(5, TimeUnit.SECONDS), is(true));
+		assertThat(executions.get(), is(10));
+		assertThat(recorder.results.size(), is(10));
+	}
+
+	@Test
+	public void wrongRequest() throws InterruptedException {
+		publisher.add(new CountingTask());
+		Recorder recorder = new Recorder();
+		publisher.subscribe(recorder);
+		recorder.subscription.request(0);
+		assertThat(recorder.completed.await(5, TimeUnit.SECONDS), is(true));
+		assertThat(recorder.error, instanceOf(IllegalArgumentException.class));
+		assertThat(executions.get(), is(0));
+	}
+
+	@Test
+	public void singleSubscriber() throws InterruptedException {
+		publisher.subscribe(new Recorder());
+		Recorder second = new Recorder();
+		publisher.subscribe(second);
+		assertThat(second.completed.await(5, TimeUnit.SECONDS), is(true));
+		assertThat(second.error, instanceOf(IllegalStateException.class));
+	}
+
+	private class CountingTask extends AsyncRunnableTask<RESULT> {
+
+		@Override
+		public String getName() {
+			return "CountingTask";
+		}
+
+		@Override
+		public void execute() {
+			executions.incrementAndGet();
+			onDone(RESULT.OK);
+		}
+	}
+
+	private static class Recorder implements Subscriber<RESULT> {
+		final List<RESULT> results = new CopyOnWriteArrayList<>();
+		final CountDownLatch completed = new CountDownLatch(1);
+		volatile Subscription subscription;
+		volatile Throwable error;
+
+		boolean await(int count) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + 5000;
+			while (results.size() < count && System.currentTimeMillis() < deadline) {
+				Thread.sleep(5);
+			}
+			return results.size() >= count;
+		}
+
+		@Override
+		public void onSubscribe(Subscription s) {
+			subscription = s;
+		}
+
+		@Override
+		public void onNext(RESULT result) {
+			results.add(result);
+		}
+
+		@Override
+		public void onError(Throwable t) {
+			error = t;
+			completed.countDown();
+		}
+
+		@Override
+		public void onComplete() {
+			completed.countDown();
+		}
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2017.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fr.coppernic.framework.art;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import fr.coppernic.framework.utils.core.CpcResult.RESULT;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+
+public class TraceRecorderTest {
+
+	private ExecutorDispatcher dispatcher;
+	private AsyncExecutorService<RESULT, AsyncRunnableTask<RESULT>> service;
+	private final CountDownLatch done = new CountDownLatch(1);
+
+	@Before
+	public void before() {
+		dispatcher = ExecutorDispatcher.newSingleThread("TraceRecorderTest");
+		service = new AsyncExecutorService<>(dispatcher);
+		service.setListener(new AsyncExecutorListener<RESULT, AsyncRunnableTask<RESULT>>() {
+			@Override
+			public void beforeTask(AsyncRunnableTask<RESULT> task) {
+			}
+
+			@Override
+			public void afterTask(AsyncRunnableTask<RESULT> task, RESULT res) {
+			}
+
+			@Override
+			public void onDone() {
+				done.countDown();
+			}
+
+			@Override
+			public void onCancelled() {
+			}
+
+			@Override
+			public void onPaused() {
+			}
+		});
+	}
+
+	@After
+	public void after() {
+		dispatcher.quit();
+	}
+
+	@Test
+	public void recordSuite() throws InterruptedException, IOException {
+		TraceRecorder recorder = new TraceRecorder();
+		service.setObserver(recorder);
+		execute(5);
+
+		String json = export(recorder);
+		assertThat(json, startsWith("{\"displayTimeUnit\":\"ms\",\"traceEvents\":["));
+		assertThat(json, endsWith("]}"));
+		assertThat(json, containsString("\"args\":{\"name\":\"TraceRecorderTest-1\"}"));
+		assertThat(count(json, "\"ph\":\"B\""), is(5));
+		assertThat(count(json, "\"ph\":\"E\""), is(5));
+		assertThat(count(json, "\"name\":\"queued\""), is(10));
+		assertThat(count(json, "\"name\":\"Name done\""), is(5));
+		assertThat(recorder.getDroppedCount(), is(0));
+	}
+
+	@Test
+	public void dropWhenFull() throws InterruptedException, IOException {
+		TraceRecorder recorder = new TraceRecorder(4);
+		service.setObserver(recorder);
+		execute(5);
+
+		assertThat(recorder.getDroppedCount(), is(5 * 5 - 4));
+		assertThat(count(export(recorder), "\"cat\":\"task\""), is(4));
+	}
+
+	@Test
+	public void recordWithMetrics() throws InterruptedException, IOException {
+		TraceRecorder recorder = new TraceRecorder();
+		ExecutorMetrics metrics = new ExecutorMetrics();
+		service.setObserver(new CompositeObserver(metrics, recorder));
+		execute(5);
+
+		assertThat(metrics.getDoneCount(), is(5L));
+		assertThat(metrics.getHistogram(ExecutorMetrics.Phase.TOTAL).getCount(), is(5L));
+		assertThat(count(export(recorder), "\"name\":\"Name done\""), is(5));
+	}
+
+	private void execute(int tasks) throws InterruptedException {
+		for (int i = 0; i < tasks; i++) {
+			AsyncRunnableTaskTest task = new AsyncRunnableTaskTest();
+			task.setTimeToSleep(0);
+			service.add(task);
+		}
+		service.execute();
+		assertThat(done.await(5, TimeUnit.SECONDS), is(true));
+	}
+
+	private static String export(TraceRecorder recorder) throws IOException {
+		StringWriter writer = new StringWriter();
+		recorder.writeTo(writer);
+		return writer.toString();
+	}
+
+	private static int count(String s, String pattern) {
+		int count = 0;
+		for (int i = s.indexOf(pattern); i >= 0; i = s.indexOf(pattern, i + 1)) {
+			count++;
+		}
+		return count;
+	}
+}